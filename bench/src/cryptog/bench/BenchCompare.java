@@ -0,0 +1,97 @@
+/*
+    *Compares a JMH CSV result file (-rf csv) against a recorded baseline run.
+    *Only primary scores are compared, the secondary -prof gc rows are skipped. A benchmark counts as
+    *regressed when its score moved the wrong way by more than the threshold percentage
+    *(lower for throughput modes, higher for time modes); the exit code is then 1.
+    *
+    *   java cryptog.bench.BenchCompare baseline.csv current.csv [threshold percent, default 10]
+*/
+package cryptog.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public final class BenchCompare {
+
+    private BenchCompare() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BenchCompare <baseline.csv> <current.csv> [threshold percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, double[]> baseline = read(Path.of(args[0]));
+        Map<String, double[]> current = read(Path.of(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, double[]> e : current.entrySet()) {
+            double[] base = baseline.get(e.getKey());
+            if (base == null) {
+                System.out.printf("NEW        %s%n", e.getKey());
+                continue;
+            }
+            double now = e.getValue()[0];
+            boolean higherIsBetter = e.getValue()[1] > 0;
+            double change = (now - base[0]) / base[0] * 100.0;
+            boolean regressed = higherIsBetter ? change < -threshold : change > threshold;
+            if (regressed) regressions++;
+            System.out.printf("%-10s %s  %.3f -> %.3f (%+.1f%%)%n", regressed ? "REGRESSED" : "ok", e.getKey(), base[0], now, change);
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    /*
+        benchmark name + mode + params -> {score, 1 for throughput modes / -1 for time modes}
+    */
+    private static Map<String, double[]> read(Path csv) throws IOException {
+        List<String> lines = Files.readAllLines(csv);
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) return scores;
+        List<String> header = split(lines.get(0));
+        int name = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> cols = split(line);
+            if (cols.size() != header.size() || cols.get(name).contains(":")) continue; // secondary result
+            StringBuilder key = new StringBuilder(cols.get(name)).append(' ').append(cols.get(mode));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ")) key.append(' ').append(header.get(i).substring(7)).append('=').append(cols.get(i));
+            }
+            boolean throughput = cols.get(mode).equals("thrpt");
+            scores.put(key.toString(), new double[] {Double.parseDouble(cols.get(score)), throughput ? 1 : -1});
+        }
+        return scores;
+    }
+
+    //splits one CSV line, handling quoted fields
+    private static List<String> split(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
@@ -0,0 +1,24 @@
+/*
+    *Counts the input bytes processed by a benchmark.
+    *JMH reports the counter as a rate next to the primary ops/s score, which gives bytes per second
+    *(divide by 10^6 for MB/s) without working it out from the size parameter by hand.
+*/
+package cryptog.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Bytes {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        bytes = 0;
+    }
+}
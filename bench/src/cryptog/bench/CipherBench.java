@@ -0,0 +1,55 @@
+/*
+    *Main.encryptKMAC and Main.decryptKMAC, the in-memory rand || c || t cryptogram.
+*/
+package cryptog.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class CipherBench {
+    private static final String PASSPHRASE = "passphrase";
+
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    private byte[] message;
+    private byte[] cryptogram;
+
+    @Setup
+    public void setup() throws Throwable {
+        message = new byte[size];
+        new Random(1).nextBytes(message);
+        cryptogram = (byte[]) Targets.ENCRYPT.invokeExact(message, PASSPHRASE);
+    }
+
+    @Benchmark
+    public byte[] encrypt(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (byte[]) Targets.ENCRYPT.invokeExact(message, PASSPHRASE);
+    }
+
+    @Benchmark
+    public byte[] decrypt(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (byte[]) Targets.DECRYPT.invokeExact(cryptogram, PASSPHRASE);
+    }
+}
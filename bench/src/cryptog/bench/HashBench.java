@@ -0,0 +1,61 @@
+/*
+    *SHAKE256, cSHAKE256 and KMACXOF256 over messages from 64 bytes to 100 MB, 512 bit output.
+*/
+package cryptog.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class HashBench {
+    private static final byte[] KEY = "passphrase".getBytes();
+    private static final byte[] NAME = "N".getBytes();
+    private static final byte[] CUSTOM = "D".getBytes();
+
+    @Param({"64", "4096", "1048576", "104857600"})
+    public int size;
+
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        message = new byte[size];
+        new Random(1).nextBytes(message);
+    }
+
+    @Benchmark
+    public byte[] shake256(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (byte[]) Targets.SHAKE256.invokeExact(message, 512);
+    }
+
+    @Benchmark
+    public byte[] cshake256(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (byte[]) Targets.CSHAKE256.invokeExact(message, 512, NAME, CUSTOM);
+    }
+
+    @Benchmark
+    public byte[] kmacxof256(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (byte[]) Targets.KMACXOF256.invokeExact(KEY, message, 512, CUSTOM);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+    *FileHash.bytesToHexString and hexStringToBytes, used to print and read back cryptograms.
+*/
+package cryptog.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBench {
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    private byte[] bytes;
+    private String hex;
+
+    @Setup
+    public void setup() throws Throwable {
+        bytes = new byte[size];
+        new Random(1).nextBytes(bytes);
+        hex = (String) Targets.TO_HEX.invokeExact(bytes);
+    }
+
+    @Benchmark
+    public String encode(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (String) Targets.TO_HEX.invokeExact(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode(Bytes counter) throws Throwable {
+        counter.bytes += size;
+        return (byte[]) Targets.FROM_HEX.invokeExact(hex);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+    *Method handles to the code under test.
+    *The application classes live in the unnamed package, which a packaged class cannot import, and JMH
+    *refuses benchmarks in the unnamed package, so the benchmarks reach FileHash, Keccak and Main
+    *through these handles. They are static final, so the JIT treats them as constants and inlines
+    *the target like a direct call.
+*/
+package cryptog.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+
+final class Targets {
+    static final MethodHandle PERMUTE = find("Keccak", "permute", long[].class);
+    static final MethodHandle SHAKE256 = find("FileHash", "SHAKE256", byte[].class, int.class);
+    static final MethodHandle CSHAKE256 = find("FileHash", "cSHAKE256", byte[].class, int.class, byte[].class, byte[].class);
+    static final MethodHandle KMACXOF256 = find("FileHash", "KMACXOF256", byte[].class, byte[].class, int.class, byte[].class);
+    static final MethodHandle ENCRYPT = find("Main", "encryptKMAC", byte[].class, String.class);
+    static final MethodHandle DECRYPT = find("Main", "decryptKMAC", byte[].class, String.class);
+    static final MethodHandle TO_HEX = find("FileHash", "bytesToHexString", byte[].class);
+    static final MethodHandle FROM_HEX = find("FileHash", "hexStringToBytes", String.class);
+
+    private Targets() {
+    }
+
+    private static MethodHandle find(String className, String name, Class<?>... params) {
+        try {
+            Method m = Class.forName(className).getDeclaredMethod(name, params);
+            m.setAccessible(true); // encryptKMAC and decryptKMAC are package-private in Main, not public
+            return MethodHandles.lookup().unreflect(m);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+    *Self-checking tests of AsyncCryptor, run by `ant selftest`. The project has no JUnit, so every
+    *check throws an AssertionError and a failing test ends the run with a non-zero exit code.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+
+public final class AsyncCryptorTest {
+    private static final int RECORDS = 3000; // well over Flow.defaultBufferSize() records
+    private static final int RECORD_BYTES = 100;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private AsyncCryptorTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        chainedProcessorsDeliverEveryRecordInOrder();
+        decryptorFailsTheStreamOnAWrongPassphrase();
+        failedFileOperationsLeaveNoOutput();
+        System.out.println("AsyncCryptorTest: all passed");
+    }
+
+    //encryptor -> decryptor on one AsyncCryptor with a subscriber that asks for one record at a time
+    private static void chainedProcessorsDeliverEveryRecordInOrder() throws Exception {
+        // not closed on failure: close() would wait for stuck workers, its pool threads are daemons
+        AsyncCryptor cryptor = new AsyncCryptor(2, 4);
+        SubmissionPublisher<byte[]> source = new SubmissionPublisher<>();
+        Flow.Processor<byte[], byte[]> encryptor = cryptor.encryptor("pw");
+        Flow.Processor<byte[], byte[]> decryptor = cryptor.decryptor("pw");
+        Collector out = new Collector();
+        source.subscribe(encryptor);
+        encryptor.subscribe(decryptor);
+        decryptor.subscribe(out);
+        for (int i = 0; i < RECORDS; i++) {
+            // a stalled pipeline stops taking records, which must fail the test rather than hang it
+            check(source.offer(record(i), TIMEOUT_SECONDS, TimeUnit.SECONDS, (s, r) -> false) >= 0,
+                    "chained processors stalled before record " + i + ", " + cryptor.inFlight() + " in flight");
+        }
+        source.close();
+
+        List<byte[]> records = await(out.done, "chained processors stalled after " + out.records.size() + " records, "
+                + cryptor.inFlight() + " in flight");
+        check(records.size() == RECORDS, "expected " + RECORDS + " records, got " + records.size());
+        for (int i = 0; i < RECORDS; i++) {
+            check(Arrays.equals(records.get(i), record(i)), "record " + i + " is wrong or out of order");
+        }
+        check(cryptor.inFlight() == 0, "slots still taken after the stream completed");
+        cryptor.close();
+    }
+
+    private static void decryptorFailsTheStreamOnAWrongPassphrase() throws Exception {
+        try (AsyncCryptor cryptor = new AsyncCryptor(2, 4)) {
+            SubmissionPublisher<byte[]> source = new SubmissionPublisher<>();
+            Flow.Processor<byte[], byte[]> encryptor = cryptor.encryptor("pw");
+            Flow.Processor<byte[], byte[]> decryptor = cryptor.decryptor("other");
+            Collector out = new Collector();
+            source.subscribe(encryptor);
+            encryptor.subscribe(decryptor);
+            decryptor.subscribe(out);
+            for (int i = 0; i < 10; i++) {
+                source.submit(record(i));
+            }
+            source.close();
+
+            try {
+                out.done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                throw new AssertionError("stream completed although every tag fails");
+            } catch (ExecutionException e) {
+                check(e.getCause() instanceof IllegalArgumentException, "unexpected failure " + e.getCause());
+            }
+            check(out.records.isEmpty(), "records were handed on although their tags failed");
+        }
+    }
+
+    //a failed encryption leaves neither a partial cryptogram nor a temporary file, and an existing out alone
+    private static void failedFileOperationsLeaveNoOutput() throws Exception {
+        Path dir = Files.createTempDirectory("AsyncCryptorTest");
+        try (AsyncCryptor cryptor = new AsyncCryptor(1, 1)) {
+            Path out = dir.resolve("missing.kmc");
+            CompletableFuture<Path> f = cryptor.encryptFile(dir.resolve("missing"), out, "pw");
+            check(failsWith(f, IOException.class), "encrypting a missing file did not fail with an IOException");
+            check(!Files.exists(out), "failed encryption left output behind");
+
+            Path in = dir.resolve("in");
+            Files.write(in, new byte[1 << 20]);
+            Path c = cryptor.encryptFile(in, dir.resolve("in.kmc"), "pw").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Path existing = dir.resolve("existing");
+            Files.write(existing, record(7));
+            check(failsWith(cryptor.decryptFile(c, existing, "other"), IllegalArgumentException.class),
+                    "decrypting under the wrong passphrase did not fail");
+            check(Arrays.equals(Files.readAllBytes(existing), record(7)), "failed decryption touched the existing output");
+
+            try (Stream<Path> files = Files.list(dir)) {
+                check(files.noneMatch(p -> p.getFileName().toString().endsWith(".part")), "temporary file left behind");
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    //RECORD_BYTES bytes starting with the index i
+    private static byte[] record(int i) {
+        ByteBuffer b = ByteBuffer.allocate(RECORD_BYTES).putInt(i);
+        for (int j = 4; j < RECORD_BYTES; j++) b.put((byte) (i * 31 + j));
+        return b.array();
+    }
+
+    private static boolean failsWith(CompletableFuture<?> f, Class<? extends Throwable> type) throws Exception {
+        try {
+            f.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return false;
+        } catch (ExecutionException e) {
+            return type.isInstance(e.getCause());
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> f, String stalled) throws Exception {
+        try {
+            return f.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError(stalled);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    //collects records, requesting the next one only after the previous has arrived
+    private static final class Collector implements Flow.Subscriber<byte[]> {
+        final List<byte[]> records = new ArrayList<>();
+        final CompletableFuture<List<byte[]>> done = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(byte[] item) {
+            records.add(item);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(records);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+    *Asynchronous bulk encryption and decryption for services that have many messages or files to
+    *process at once. Every call returns a CompletableFuture straight away and the work runs on an
+    *executor, either one supplied by the caller or a fixed pool owned by this object.
+    *
+    *At most maxInFlight operations are submitted or running at any time. A call made while all slots
+    *are taken blocks the caller until one frees up, so producers are slowed down to the speed of the
+    *workers instead of queueing unbounded amounts of plaintext in memory.
+    *
+    *A slot is freed before the returned future completes, so work chained onto the future can take it.
+    *Cancelling a returned future frees its slot as soon as the work notices: messages that have not
+    *started are skipped and files stop after the current 1 MiB chunk. Files are written through a
+    *temporary file by FileCryptor, so a failed or cancelled operation never leaves partial output.
+    *submitted(), completed(), failed(), inFlight() and bytesProcessed() report progress across all calls.
+    *
+    *encryptor() and decryptor() wrap the same operations as Flow processors for streams of records:
+    *records are processed concurrently and published downstream in their original order, as fast as
+    *the subscriber requests them. Their records never block a thread waiting for a slot, they queue
+    *for the next free one instead, so processors can be chained on one AsyncCryptor.
+    *
+    *In memory cryptograms are the rand || c || t format of Main.encryptKMAC, files that of FileCryptor.
+*/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+
+public final class AsyncCryptor implements AutoCloseable {
+    private final Executor executor;
+    private final ExecutorService owned; // null when the executor belongs to the caller
+    private final int maxInFlight;
+    private final Semaphore slots;
+    private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>(); // records queued for a slot
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    /*
+        runs on its own pool of `threads` worker threads with at most maxInFlight operations
+        submitted or running, close() shuts the pool down
+    */
+    public AsyncCryptor(int threads, int maxInFlight) {
+        this(newPool(threads), maxInFlight, true);
+    }
+
+    //runs on the caller's executor, which close() leaves alone
+    public AsyncCryptor(Executor executor, int maxInFlight) {
+        this(executor, maxInFlight, false);
+    }
+
+    private AsyncCryptor(Executor executor, int maxInFlight, boolean owned) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("At least one operation must be allowed in flight.");
+        this.executor = executor;
+        this.owned = owned ? (ExecutorService) executor : null;
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight);
+    }
+
+    private static ExecutorService newPool(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive.");
+        AtomicInteger id = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "AsyncCryptor-" + id.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //rand || c || t cryptogram of m under passphrase pw
+    public CompletableFuture<byte[]> encrypt(byte[] m, String pw) {
+        return schedule(m.length, f -> Main.encryptKMAC(m, pw));
+    }
+
+    //plaintext of a rand || c || t cryptogram, completes exceptionally when the tag does not verify
+    public CompletableFuture<byte[]> decrypt(byte[] cryptogram, String pw) {
+        return schedule(cryptogram.length, f -> Main.decryptKMAC(cryptogram, pw));
+    }
+
+    //encrypts the file in into out, completing with out
+    public CompletableFuture<Path> encryptFile(Path in, Path out, String pw) {
+        return schedule(0, f -> {
+            try {
+                FileCryptor.encrypt(in, out, pw, chunkProgress(f));
+                return out;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    //decrypts the cryptogram file in into out, out is only written once the tag has verified
+    public CompletableFuture<Path> decryptFile(Path in, Path out, String pw) {
+        return schedule(0, f -> {
+            try {
+                FileCryptor.decrypt(in, out, pw, chunkProgress(f));
+                return out;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /*
+        processor turning plaintext records into cryptograms under pw
+        subscribe it to a publisher of records and subscribe consumers to it
+    */
+    public Flow.Processor<byte[], byte[]> encryptor(String pw) {
+        return new RecordProcessor(m -> enqueue(m.length, f -> Main.encryptKMAC(m, pw)));
+    }
+
+    //processor turning cryptograms back into plaintext records, a record failing its tag fails the stream
+    public Flow.Processor<byte[], byte[]> decryptor(String pw) {
+        return new RecordProcessor(c -> enqueue(c.length, f -> Main.decryptKMAC(c, pw)));
+    }
+
+    public long submitted() {
+        return submitted.sum();
+    }
+
+    public long completed() {
+        return completed.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    //operations holding a slot right now, queued or running
+    public int inFlight() {
+        return maxInFlight - slots.availablePermits();
+    }
+
+    //plaintext or cryptogram bytes of finished messages plus file bytes streamed so far
+    public long bytesProcessed() {
+        return bytes.sum();
+    }
+
+    /*
+        waits for a free slot and runs work on the executor
+        bytes is added to the progress once work has finished successfully, files report their own
+    */
+    private <T> CompletableFuture<T> schedule(long n, Function<CompletableFuture<T>, T> work) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            f.completeExceptionally(e);
+            return f;
+        }
+        start(f, n, work);
+        return f;
+    }
+
+    //as schedule, but without a free slot the work is queued for the next one instead of blocking the caller
+    private <T> CompletableFuture<T> enqueue(long n, Function<CompletableFuture<T>, T> work) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        waiting.add(() -> start(f, n, work));
+        startWaiting();
+        return f;
+    }
+
+    //runs work on the executor in a slot the caller has taken
+    private <T> void start(CompletableFuture<T> f, long n, Function<CompletableFuture<T>, T> work) {
+        submitted.increment();
+        try {
+            executor.execute(() -> run(f, n, work));
+        } catch (RejectedExecutionException e) {
+            release();
+            failed.increment();
+            f.completeExceptionally(e);
+        }
+    }
+
+    //the slot is released before f completes, so whatever runs on completion can take it
+    private <T> void run(CompletableFuture<T> f, long n, Function<CompletableFuture<T>, T> work) {
+        T result = null;
+        Throwable failure = null;
+        try {
+            if (f.isDone()) return; // cancelled before it started
+            result = work.apply(f);
+            bytes.add(n);
+            completed.increment();
+        } catch (Throwable e) {
+            failed.increment();
+            failure = e instanceof UncheckedIOException ? e.getCause() : e;
+        } finally {
+            release();
+        }
+        if (failure == null) f.complete(result);
+        else f.completeExceptionally(failure);
+    }
+
+    private void release() {
+        slots.release();
+        startWaiting();
+    }
+
+    /*
+        starts queued work while slots are free
+        called after every enqueue and release, so queued work never waits while a slot is free
+    */
+    private void startWaiting() {
+        while (!waiting.isEmpty() && slots.tryAcquire()) {
+            Runnable r = waiting.poll();
+            if (r == null) slots.release(); // another thread started it first
+            else r.run();
+        }
+    }
+
+    //counts streamed bytes and stops the file operation once f has been cancelled
+    private LongConsumer chunkProgress(CompletableFuture<?> f) {
+        return n -> {
+            bytes.add(n);
+            if (f.isCancelled()) throw new CancellationException();
+        };
+    }
+
+    /*
+        for an owned pool: stops accepting work and waits until every submitted operation has finished
+        nothing to do for a caller's executor
+    */
+    @Override
+    public void close() {
+        if (owned == null) return;
+        owned.shutdown();
+        try {
+            owned.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            owned.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+        Flow processor running every record through op, for a single subscriber
+        up to maxInFlight records are requested from upstream at a time and one more after each
+        result has been handed on. Results go out in arrival order and only as far as the subscriber
+        has requested them, a result it has not asked for yet waits in pending, which in turn holds
+        back the upstream. Signals to the subscriber are sent by one draining thread at a time and
+        never while holding the monitor
+    */
+    private final class RecordProcessor implements Flow.Processor<byte[], byte[]> {
+        private final Function<byte[], CompletableFuture<byte[]>> op;
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private Flow.Subscription upstream;
+        private Flow.Subscriber<? super byte[]> downstream; // set once its onSubscribe has returned
+        private boolean subscribed;
+        private long demand; // requested by the subscriber and not yet handed on
+        private boolean upstreamDone;
+        private boolean finished; // onComplete or onError has gone out, or the subscriber cancelled
+        private boolean draining;
+        private Throwable error; // set once upstream failed, a record did or the subscriber misbehaved
+
+        RecordProcessor(Function<byte[], CompletableFuture<byte[]>> op) {
+            this.op = op;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+            boolean first;
+            synchronized (this) {
+                first = !subscribed;
+                subscribed = true;
+            }
+            if (!first) {
+                subscriber.onSubscribe(new Downstream(false));
+                subscriber.onError(new IllegalStateException("Only one subscriber is supported."));
+                return;
+            }
+            subscriber.onSubscribe(new Downstream(true));
+            synchronized (this) {
+                downstream = subscriber;
+            }
+            drain();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            synchronized (this) {
+                if (upstream != null || finished) {
+                    subscription.cancel();
+                    return;
+                }
+                upstream = subscription;
+            }
+            subscription.request(maxInFlight);
+        }
+
+        @Override
+        public void onNext(byte[] item) {
+            CompletableFuture<byte[]> f = op.apply(item);
+            synchronized (this) {
+                if (error != null || finished) {
+                    f.cancel(false);
+                    return;
+                }
+                pending.add(f);
+            }
+            f.whenComplete((r, e) -> drain());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (this) {
+                if (error == null) error = throwable;
+                upstreamDone = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                upstreamDone = true;
+            }
+            drain();
+        }
+
+        /*
+            hands on finished results at the head of the queue while the subscriber wants them, then
+            closes once everything is through or something failed
+            a call made while another thread drains returns at once, that thread looks again
+        */
+        private void drain() {
+            synchronized (this) {
+                if (draining) return;
+                draining = true;
+            }
+            while (true) {
+                Flow.Subscriber<? super byte[]> s;
+                Flow.Subscription up;
+                byte[] item = null;
+                Throwable failure = null;
+                List<CompletableFuture<byte[]>> dropped = null;
+                synchronized (this) {
+                    s = downstream;
+                    up = upstream;
+                    if (s == null || finished) {
+                        draining = false;
+                        return;
+                    }
+                    CompletableFuture<byte[]> head = pending.peek();
+                    if (error == null && demand > 0 && head != null && head.isDone()) {
+                        pending.poll();
+                        try {
+                            item = head.join();
+                            demand--;
+                        } catch (CompletionException e) {
+                            error = e.getCause();
+                        } catch (CancellationException e) {
+                            error = e;
+                        }
+                    }
+                    if (item == null) {
+                        if (error != null) {
+                            failure = error;
+                            dropped = new ArrayList<>(pending);
+                            pending.clear();
+                        } else if (!upstreamDone || !pending.isEmpty()) {
+                            draining = false;
+                            return;
+                        }
+                        finished = true;
+                    }
+                }
+                if (item != null) {
+                    s.onNext(item);
+                    up.request(1);
+                } else if (failure != null) {
+                    if (up != null) up.cancel();
+                    for (CompletableFuture<byte[]> f : dropped) f.cancel(false);
+                    s.onError(failure);
+                } else {
+                    s.onComplete();
+                }
+            }
+        }
+
+        //the subscriber's side, a rejected second subscriber gets one that does nothing
+        private final class Downstream implements Flow.Subscription {
+            private final boolean active;
+
+            Downstream(boolean active) {
+                this.active = active;
+            }
+
+            @Override
+            public void request(long n) {
+                if (!active) return;
+                synchronized (RecordProcessor.this) {
+                    if (n <= 0) {
+                        if (error == null) error = new IllegalArgumentException("Requested count must be positive.");
+                    } else {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                if (!active) return;
+                Flow.Subscription up;
+                List<CompletableFuture<byte[]>> dropped;
+                synchronized (RecordProcessor.this) {
+                    if (finished) return;
+                    finished = true;
+                    up = upstream;
+                    dropped = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                if (up != null) up.cancel();
+                for (CompletableFuture<byte[]> f : dropped) f.cancel(false);
+            }
+        }
+    }
+}
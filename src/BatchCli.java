@@ -0,0 +1,342 @@
+/*
+    *Non-interactive, argument driven mode of the app for processing whole directory trees.
+    *
+    *   java Main hash|mac|encrypt|decrypt [options] <file or directory>...
+    *
+    *   --recursive, -r         descend into sub directories (otherwise only the files directly inside)
+    *   --threads N             number of files processed at once, default the number of cores
+    *   --manifest FILE         write the manifest to FILE instead of standard output
+    *   --passphrase-file FILE  read the passphrase from the first line of FILE (mac, encrypt, decrypt)
+    *   --passphrase-env VAR    read the passphrase from environment variable VAR
+    *   --out DIR               encrypt/decrypt: write results under DIR, mirroring the input tree
+    *   --segmented             encrypt/decrypt: use the segmented (version 2) cryptogram format
+    *   --index FILE            hash: reuse digests from the DigestIndex at FILE for unchanged files
+    *   --kt256                 hash: use KT256(file, "", 512) instead, a reduced round (12 of 24) hash about
+    *                           twice as fast, for deduplication and cache keys only (see TurboShake)
+    *
+    *The input trees are walked while a fixed pool of workers processes the files found so far, handed
+    *over through a bounded queue, so the walk and one file's reads overlap the hashing of the others.
+    *A directory that cannot be read counts as one failure without stopping the rest. Inside walked
+    *directories encrypt skips cryptograms (*.kmc) and decrypt takes only those, and neither enters
+    *--out, so outputs written during the run are never processed again. Every processed file adds one
+    *tab separated manifest line: path, size in bytes, and the hex digest (hash, mac) or the output path
+    *(encrypt, decrypt). Tabs, newlines and backslashes in paths are escaped as \t, \n and \\.
+    *hash is KMACXOF256("", file, 512, "D") and mac is KMACXOF256(passphrase, file, 512, "T"), the same values
+    *the interactive services print, unless --kt256 is given. The exit status is 0 on success, 1 if any file failed and 2 on bad usage.
+*/
+
+import java.io.BufferedWriter;
+import java.io.Console;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+
+public final class BatchCli {
+    static final String CRYPTOGRAM_SUFFIX = ".kmc";
+    private static final int BUFFER = 1 << 20;
+    // temporary file of a cryptogram being written, see FileCryptor.encrypt
+    private static final Pattern CRYPTOGRAM_PART = Pattern.compile(".*" + Pattern.quote(CRYPTOGRAM_SUFFIX) + "\\d+\\.part");
+
+    private final String command;
+    private final List<Path> inputs = new ArrayList<>();
+    private boolean recursive;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Path manifest;
+    private Path outDir;
+    private boolean segmented;
+    private String passphrase;
+    private Path indexFile;
+    private boolean kt256;
+    private DigestIndex index;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[BUFFER]);
+    private Writer out;
+
+    private BatchCli(String command) {
+        this.command = command;
+    }
+
+    /*
+        runs the command given by args and returns the exit status
+    */
+    public static int run(String[] args) {
+        BatchCli cli;
+        try {
+            cli = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java Main hash|mac|encrypt|decrypt [--recursive] [--threads N] [--manifest FILE]\n"
+                    + "       [--passphrase-file FILE | --passphrase-env VAR] [--out DIR] [--segmented] [--index FILE] [--kt256] <path>...");
+            return 2;
+        }
+        try {
+            return cli.execute();
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static BatchCli parse(String[] args) {
+        if (args.length == 0) throw new IllegalArgumentException("No command given.");
+        String command = args[0];
+        if (!command.equals("hash") && !command.equals("mac") && !command.equals("encrypt") && !command.equals("decrypt")) {
+            throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        BatchCli cli = new BatchCli(command);
+        String passFile = null;
+        String passEnv = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--recursive":
+                case "-r":
+                    cli.recursive = true;
+                    break;
+                case "--threads":
+                    cli.threads = Integer.parseInt(value(args, ++i));
+                    if (cli.threads < 1) throw new IllegalArgumentException("--threads must be at least 1.");
+                    break;
+                case "--manifest":
+                    cli.manifest = Path.of(value(args, ++i));
+                    break;
+                case "--passphrase-file":
+                    passFile = value(args, ++i);
+                    break;
+                case "--passphrase-env":
+                    passEnv = value(args, ++i);
+                    break;
+                case "--out":
+                    cli.outDir = Path.of(value(args, ++i));
+                    break;
+                case "--segmented":
+                    cli.segmented = true;
+                    break;
+                case "--index":
+                    cli.indexFile = Path.of(value(args, ++i));
+                    break;
+                case "--kt256":
+                    cli.kt256 = true;
+                    break;
+                default:
+                    if (args[i].startsWith("--")) throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    cli.inputs.add(Path.of(args[i]));
+            }
+        }
+        if (cli.inputs.isEmpty()) throw new IllegalArgumentException("No input paths given.");
+        if (cli.indexFile != null && !command.equals("hash")) throw new IllegalArgumentException("--index only applies to hash.");
+        if (cli.kt256 && !command.equals("hash")) throw new IllegalArgumentException("--kt256 only applies to hash.");
+        // the index has no record of which function produced a digest
+        if (cli.kt256 && cli.indexFile != null) throw new IllegalArgumentException("--kt256 cannot be combined with --index.");
+        if (!command.equals("hash")) cli.passphrase = readPassphrase(passFile, passEnv);
+        return cli;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    static String readPassphrase(String passFile, String passEnv) {
+        if (passFile != null) {
+            try (Stream<String> lines = Files.lines(Path.of(passFile))) {
+                return lines.findFirst().orElseThrow(() -> new IllegalArgumentException("Passphrase file is empty."));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read passphrase file: " + e.getMessage());
+            }
+        }
+        if (passEnv != null) {
+            String pw = System.getenv(passEnv);
+            if (pw == null) throw new IllegalArgumentException("Environment variable " + passEnv + " is not set.");
+            return pw;
+        }
+        Console console = System.console();
+        if (console == null) throw new IllegalArgumentException("No passphrase given and no console to ask for one.");
+        return new String(console.readPassword("Passphrase: "));
+    }
+
+    private int execute() throws IOException {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        out = manifest == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : Files.newBufferedWriter(manifest, StandardCharsets.UTF_8);
+        if (indexFile != null) index = DigestIndex.open(indexFile);
+        try {
+            for (Path input : inputs) {
+                if (Files.isRegularFile(input)) {
+                    pool.execute(() -> process(input, input.getFileName()));
+                } else if (!Files.isDirectory(input)) {
+                    failures.incrementAndGet();
+                    System.err.println(input + ": no such file or directory");
+                } else {
+                    walk(input, pool);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (manifest == null) out.flush(); else out.close();
+            if (index != null) index.close();
+        }
+        return failures.get() == 0 ? 0 : 1;
+    }
+
+    /*
+        hands every regular file in dir, or below it with --recursive, to pool as it is found
+        an entry or directory that cannot be read counts as a failed file and the walk goes on
+    */
+    private void walk(Path dir, ThreadPoolExecutor pool) throws IOException {
+        Path outRoot = outDir == null ? null : outDir.toAbsolutePath().normalize();
+        Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                        if (outRoot != null && d.toAbsolutePath().normalize().equals(outRoot)) return FileVisitResult.SKIP_SUBTREE;
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (Files.isRegularFile(file) && wanted(file.getFileName().toString())) {
+                            Path relative = dir.relativize(file);
+                            pool.execute(() -> process(file, relative));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failures.incrementAndGet();
+                        System.err.println(file + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path d, IOException e) {
+                        if (e != null) visitFileFailed(d, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    /*
+        whether a file found by walking a directory is an input of the command
+        encrypt and decrypt leave out what they write themselves, cryptograms and plaintexts respectively
+    */
+    private boolean wanted(String name) {
+        switch (command) {
+            case "encrypt":
+                return !name.endsWith(CRYPTOGRAM_SUFFIX) && !CRYPTOGRAM_PART.matcher(name).matches();
+            case "decrypt":
+                return name.endsWith(CRYPTOGRAM_SUFFIX);
+            default:
+                return true;
+        }
+    }
+
+    //runs the command on one file, relative is its path below the input it was found under
+    private void process(Path file, Path relative) {
+        try {
+            long size = Files.size(file);
+            String result;
+            switch (command) {
+                case "hash": {
+                    byte[] d = kt256 ? TurboShake.KT256(file, new byte[0], 512)
+                            : index == null ? digest(file, new byte[0], "D".getBytes())
+                            : index.digest(file, f -> digest(f, new byte[0], "D".getBytes()));
+                    result = HexFormat.of().formatHex(d);
+                    break;
+                }
+                case "mac":
+                    result = HexFormat.of().formatHex(digest(file, passphrase.getBytes(), "T".getBytes()));
+                    break;
+                case "encrypt": {
+                    Path target = target(file, relative, file.getFileName() + CRYPTOGRAM_SUFFIX);
+                    if (segmented) SegmentedCryptor.encrypt(file, target, passphrase);
+                    else FileCryptor.encrypt(file, target, passphrase);
+                    result = target.toString();
+                    break;
+                }
+                default: {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(CRYPTOGRAM_SUFFIX)) name = name.substring(0, name.length() - CRYPTOGRAM_SUFFIX.length());
+                    else name = name + ".out";
+                    Path target = target(file, relative, name);
+                    if (segmented) SegmentedCryptor.decrypt(file, target, passphrase);
+                    else FileCryptor.decrypt(file, target, passphrase);
+                    result = target.toString();
+                }
+            }
+            record(file, size, result);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println(file + ": " + e.getMessage());
+        }
+    }
+
+    //KMACXOF256(key, file, 512, customization), streamed through this worker's buffer
+    private byte[] digest(Path file, byte[] key, byte[] customization) throws IOException {
+        long start = System.nanoTime();
+        HashContext ctx = new HashContext();
+        ctx.init(key, customization);
+        byte[] buf = buffers.get();
+        long total = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            int n;
+            while ((n = ch.read(bb.clear())) >= 0) {
+                ctx.update(buf, 0, n);
+                total += n;
+            }
+        }
+        byte[] out = ctx.squeeze(512);
+        CryptoMetrics.record(CryptoMetrics.Op.KMACXOF256, customization, total, start, false);
+        return out;
+    }
+
+    //output path next to the input, or under --out with the input's relative directory recreated
+    private Path target(Path file, Path relative, String name) throws IOException {
+        if (outDir == null) return file.resolveSibling(name);
+        Path parent = relative.getParent();
+        Path dir = parent == null ? outDir : outDir.resolve(parent);
+        Files.createDirectories(dir);
+        return dir.resolve(name);
+    }
+
+    private void record(Path file, long size, String result) throws IOException {
+        String line = escape(file.toString()) + '\t' + size + '\t' + escape(result) + '\n';
+        synchronized (this) {
+            out.write(line);
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+    *Random bit generator on the cSHAKE256 sponge, as a SecureRandomSpi.
+    *
+    *   state  = cSHAKE256 sponge over key, N = "DRBG", S = "G", squeezing
+    *   key_0  = cSHAKE256(seed || personalization, 512, "DRBG", "I")
+    *   reseed : key = cSHAKE256(64 bytes squeezed from the state || new seed, 512, "DRBG", "R")
+    *
+    *Output is squeezed from the state in blocks of BUFFER bytes, small requests are served from the
+    *last block and large ones are squeezed straight into the caller's array. Every block is followed
+    *by a ratchet before any of it is handed out: the next 64 output bytes become the key of a fresh
+    *state and the old one is wiped. No key is kept once the state has absorbed it, and buffered bytes
+    *are zeroed as they are handed out, so a captured generator reveals the unread rest of the current
+    *block and what follows it, but no output handed out before.
+    *
+    *current() gives every platform thread its own generator, seeded from the platform SecureRandom and
+    *reseeded from it every RESEED_BYTES bytes, so concurrent callers never share a lock. Virtual threads
+    *are often created per task and would each pay for a new seed, so they share a fixed set of such
+    *generators instead, picked by thread id; each is locked only for the duration of one call. seeded() gives a
+    *deterministic generator for tests and simulations: the same seed always yields the same bytes,
+    *it is never reseeded automatically, and setSeed() mixes the given bytes in deterministically.
+*/
+
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+public final class CShakeDrbg extends SecureRandomSpi {
+    private static final int KEY_BYTES = 64;
+    private static final int BUFFER = 4096; // output squeezed from one state before it is rekeyed
+    private static final long RESEED_BYTES = 1L << 30;
+    private static final byte[] NAME = "DRBG".getBytes();
+    private static final byte[] GENERATE = {'G'};
+    private static final byte[] INSTANTIATE = {'I'};
+    private static final byte[] RESEED = {'R'};
+
+    private static final SecureRandom ENTROPY = new SecureRandom();
+    private static final ThreadLocal<SecureRandom> CURRENT = ThreadLocal.withInitial(CShakeDrbg::create);
+    // generators shared by virtual threads, created on first use, a power of two of at least four per core
+    private static final AtomicReferenceArray<SecureRandom> STRIPES =
+            new AtomicReferenceArray<>(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) * 2);
+
+    private final boolean deterministic;
+    private final HashContext state = new HashContext();
+    private final byte[] buffer = new byte[BUFFER];
+    private int available; // unread bytes at the end of buffer
+    private long sinceReseed;
+
+    /*
+        seed null: seeded from the platform SecureRandom and reseeded from it periodically
+        otherwise deterministic from seed and personalization (which may be null)
+    */
+    private CShakeDrbg(byte[] seed, byte[] personalization) {
+        this.deterministic = seed != null;
+        byte[] s = deterministic ? seed : entropy();
+        byte[] p = personalization == null ? new byte[0] : personalization;
+        byte[] k = FileHash.cSHAKE256(FileHash.concat(s, p), KEY_BYTES * 8, NAME, INSTANTIATE);
+        rekey(k);
+        if (!deterministic) Arrays.fill(s, (byte) 0);
+    }
+
+    //the calling thread's generator, seeded from the platform SecureRandom
+    public static SecureRandom current() {
+        Thread t = Thread.currentThread();
+        return t.isVirtual() ? stripe(t.threadId()) : CURRENT.get();
+    }
+
+    private static SecureRandom stripe(long id) {
+        int i = (int) id & (STRIPES.length() - 1);
+        SecureRandom r = STRIPES.get(i);
+        if (r != null) return r;
+        STRIPES.compareAndSet(i, null, create());
+        return STRIPES.get(i);
+    }
+
+    //a new deterministic generator, for tests and simulations only
+    public static SecureRandom seeded(byte[] seed) {
+        return seeded(seed, null);
+    }
+
+    //deterministic generator whose stream also depends on personalization
+    public static SecureRandom seeded(byte[] seed, byte[] personalization) {
+        if (seed == null) throw new IllegalArgumentException("Seed must not be null.");
+        return wrap(new CShakeDrbg(seed.clone(), personalization));
+    }
+
+    //a new generator seeded from the platform SecureRandom, for callers that keep their own instance
+    public static SecureRandom create() {
+        return wrap(new CShakeDrbg(null, null));
+    }
+
+    private static SecureRandom wrap(CShakeDrbg spi) {
+        return new Generator(spi);
+    }
+
+    //SecureRandom front end of one generator, not registered with any provider
+    private static final class Generator extends SecureRandom {
+        Generator(CShakeDrbg spi) {
+            super(spi, null);
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "cSHAKE256-DRBG";
+        }
+    }
+
+    //mixes seed into the key, the unread buffered output is dropped
+    @Override
+    protected void engineSetSeed(byte[] seed) {
+        reseed(seed);
+    }
+
+    @Override
+    protected void engineNextBytes(byte[] bytes) {
+        int off = 0;
+        int len = bytes.length;
+        if (!deterministic && sinceReseed >= RESEED_BYTES) {
+            byte[] s = entropy();
+            reseed(s);
+            Arrays.fill(s, (byte) 0);
+        }
+        sinceReseed += len;
+        int n = Math.min(len, available);
+        System.arraycopy(buffer, BUFFER - available, bytes, off, n);
+        Arrays.fill(buffer, BUFFER - available, BUFFER - available + n, (byte) 0);
+        available -= n;
+        off += n;
+        len -= n;
+        // whole blocks straight into the caller's array, then the rest from a fresh buffer
+        while (len >= BUFFER) {
+            state.squeeze(bytes, off, BUFFER);
+            ratchet();
+            off += BUFFER;
+            len -= BUFFER;
+        }
+        if (len > 0) {
+            state.squeeze(buffer, 0, BUFFER);
+            ratchet();
+            System.arraycopy(buffer, 0, bytes, off, len);
+            Arrays.fill(buffer, 0, len, (byte) 0);
+            available = BUFFER - len;
+        }
+    }
+
+    //seed bytes from the platform SecureRandom, not from this generator
+    @Override
+    protected byte[] engineGenerateSeed(int numBytes) {
+        return ENTROPY.generateSeed(numBytes);
+    }
+
+    private void reseed(byte[] seed) {
+        byte[] old = new byte[KEY_BYTES];
+        state.squeeze(old, 0, KEY_BYTES);
+        byte[] m = FileHash.concat(old, seed);
+        byte[] k = FileHash.cSHAKE256(m, KEY_BYTES * 8, NAME, RESEED);
+        Arrays.fill(old, (byte) 0);
+        Arrays.fill(m, (byte) 0);
+        Arrays.fill(buffer, (byte) 0);
+        available = 0;
+        sinceReseed = 0;
+        rekey(k);
+    }
+
+    //the next 64 output bytes become the key of a new state, so earlier output cannot be recovered
+    private void ratchet() {
+        byte[] k = new byte[KEY_BYTES];
+        state.squeeze(k, 0, KEY_BYTES);
+        rekey(k);
+    }
+
+    //starts a fresh state on k and wipes k
+    private void rekey(byte[] k) {
+        state.initCSHAKE256(NAME, GENERATE);
+        state.update(k);
+        Arrays.fill(k, (byte) 0);
+    }
+
+    private static byte[] entropy() {
+        byte[] s = new byte[KEY_BYTES];
+        ENTROPY.nextBytes(s);
+        return s;
+    }
+}
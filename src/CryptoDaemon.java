@@ -0,0 +1,337 @@
+/*
+    *Long running daemon that keeps a warmed up engine resident and serves requests over a local
+    *Unix-domain socket, so short jobs don't pay for JVM startup and JIT warmup every time.
+    *
+    *   java Main daemon --socket PATH [--max-active N] [--queue N] [--max-connections N]
+    *
+    *Every connection gets its own virtual thread and may send any number of requests, one at a time:
+    *
+    *   request  = op (1 byte) || key length (4 bytes) || key || data length (4 bytes) || data
+    *   response = status (1 byte) || length (4 bytes) || payload
+    *
+    *ops are 1 hash, 2 mac, 3 encrypt, 4 decrypt with the same meaning as the interactive services:
+    *hash = KMACXOF256("", data, 512, "D"), mac = KMACXOF256(key, data, 512, "T"), and encrypt/decrypt
+    *use the rand || c || t cryptogram of Main.encryptKMAC under passphrase key. Lengths are big endian.
+    *status is 0 with the result as payload, 1 with an UTF-8 error message, or 2 when the daemon is busy.
+    *At most max-active requests run at once and at most queue more wait for a slot; anything beyond that
+    *is answered busy straight away instead of piling up. Admission is decided on the op byte, before
+    *the key and data are read: a busy request has its bodies skipped without buffering them. Only
+    *admitted requests hold their key, data and result in memory, so the daemon needs at most about
+    *(max-active + queue) x 3 x MAX_MESSAGE (16 MiB) for requests. At most max-connections clients
+    *(256 by default) are connected at once, further ones wait in the socket backlog until one hangs up.
+    *DaemonClient is the matching client.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public final class CryptoDaemon implements AutoCloseable {
+    static final byte OP_HASH = 1;
+    static final byte OP_MAC = 2;
+    static final byte OP_ENCRYPT = 3;
+    static final byte OP_DECRYPT = 4;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    static final byte STATUS_BUSY = 2;
+    static final int MAX_MESSAGE = 1 << 24; // largest key or data accepted in one request
+    static final int MAX_RESPONSE = MAX_MESSAGE + 128; // a cryptogram adds rand and tag to its message
+    static final int DEFAULT_CONNECTIONS = 256;
+    private static final long ACCEPT_POLL_MILLIS = 100; // how often a full serve() checks for stop()
+    private static final long SHUTDOWN_MILLIS = 5000; // the shutdown hook waits this long for close()
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore active;
+    private final int admissible;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final Semaphore connections;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    public CryptoDaemon(Path socket, int maxActive, int queue) throws IOException {
+        this(socket, maxActive, queue, DEFAULT_CONNECTIONS);
+    }
+
+    /*
+        binds the daemon to socket, maxActive requests run at once and up to queue more may wait
+        at most maxConnections clients are served at a time
+    */
+    public CryptoDaemon(Path socket, int maxActive, int queue, int maxConnections) throws IOException {
+        if (maxActive < 1 || queue < 0) throw new IllegalArgumentException("Need at least one active request and a non-negative queue.");
+        if (maxConnections < 1) throw new IllegalArgumentException("Need at least one connection.");
+        this.socket = socket;
+        this.active = new Semaphore(maxActive);
+        this.connections = new Semaphore(maxConnections);
+        this.admissible = maxActive + queue;
+        removeStaleSocket(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+    }
+
+    /*
+        runs "daemon" from the command line and returns the exit status
+    */
+    public static int run(String[] args) {
+        Path socket = null;
+        int maxActive = Runtime.getRuntime().availableProcessors();
+        int queue = 64;
+        int maxConnections = DEFAULT_CONNECTIONS;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--socket":
+                        socket = Path.of(value(args, ++i));
+                        break;
+                    case "--max-active":
+                        maxActive = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--queue":
+                        queue = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--max-connections":
+                        maxConnections = Integer.parseInt(value(args, ++i));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (socket == null) throw new IllegalArgumentException("No --socket given.");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java Main daemon --socket PATH [--max-active N] [--queue N] [--max-connections N]");
+            return 2;
+        }
+        try (CryptoDaemon daemon = new CryptoDaemon(socket, maxActive, queue, maxConnections)) {
+            // on Ctrl-C or SIGTERM serve() returns and the try block closes the daemon as usual
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                daemon.stop();
+                daemon.awaitClosed(SHUTDOWN_MILLIS);
+            }));
+            warmUp();
+            System.err.println("listening on " + socket);
+            daemon.serve();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /*
+        accepts connections until the daemon is stopped or closed
+        no connection is accepted while max-connections clients are connected
+    */
+    public void serve() throws IOException {
+        while (awaitConnectionSlot()) {
+            SocketChannel ch;
+            try {
+                ch = server.accept();
+            } catch (IOException e) {
+                connections.release();
+                if (!server.isOpen()) return;
+                throw e;
+            }
+            try {
+                threads.execute(() -> {
+                    try {
+                        connection(ch);
+                    } finally {
+                        connections.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) { // closed meanwhile
+                connections.release();
+                ch.close();
+                return;
+            }
+        }
+    }
+
+    //takes a connection slot, false once the daemon has been stopped
+    private boolean awaitConnectionSlot() {
+        try {
+            while (!connections.tryAcquire(ACCEPT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!server.isOpen()) return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (server.isOpen()) return true;
+        connections.release();
+        return false;
+    }
+
+    //makes serve() return, close() still has to be called to release everything
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // accept() fails either way, which is all that is needed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.getCount() == 0) return;
+        try {
+            server.close();
+            threads.shutdownNow();
+            Files.deleteIfExists(socket);
+        } finally {
+            closed.countDown();
+        }
+    }
+
+    //waits up to millis for close() to have finished
+    void awaitClosed(long millis) {
+        try {
+            closed.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //serves the requests of one client until it hangs up
+    private void connection(SocketChannel ch) {
+        try (ch;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)))) {
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (admitted.incrementAndGet() > admissible) {
+                    admitted.decrementAndGet();
+                    skipBlock(in);
+                    skipBlock(in);
+                    write(out, STATUS_BUSY, new byte[0]);
+                } else {
+                    try {
+                        respond(out, op, readBlock(in), readBlock(in));
+                    } finally {
+                        admitted.decrementAndGet();
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // client went away or sent garbage, drop the connection
+        }
+    }
+
+    //runs an admitted request once a slot is free and writes its response
+    private void respond(DataOutputStream out, int op, byte[] key, byte[] data) throws IOException {
+        byte status;
+        byte[] result;
+        try {
+            active.acquireUninterruptibly();
+            try {
+                result = execute(op, key, data);
+                status = STATUS_OK;
+            } finally {
+                active.release();
+            }
+        } catch (RuntimeException e) {
+            status = STATUS_ERROR;
+            result = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+        }
+        write(out, status, result);
+    }
+
+    static byte[] execute(int op, byte[] key, byte[] data) {
+        switch (op) {
+            case OP_HASH:
+                return FileHash.KMACXOF256(new byte[0], data, 512, "D".getBytes());
+            case OP_MAC:
+                return FileHash.KMACXOF256(key, data, 512, "T".getBytes());
+            case OP_ENCRYPT:
+                return Main.encryptKMAC(data, new String(key, StandardCharsets.UTF_8));
+            case OP_DECRYPT:
+                if (data.length < 128) throw new IllegalArgumentException("Cryptogram is too short.");
+                return Main.decryptKMAC(data, new String(key, StandardCharsets.UTF_8));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    //runs every operation enough times for the JIT to compile the permutation before the first client
+    private static void warmUp() {
+        byte[] data = new byte[1024];
+        byte[] key = "warm up".getBytes();
+        for (int i = 0; i < 2000; i++) {
+            execute(OP_HASH, key, data);
+            execute(OP_DECRYPT, key, execute(OP_ENCRYPT, key, data));
+        }
+    }
+
+    static byte[] readBlock(DataInputStream in) throws IOException {
+        return readBlock(in, MAX_MESSAGE);
+    }
+
+    //length prefixed block of at most max bytes
+    static byte[] readBlock(DataInputStream in, int max) throws IOException {
+        byte[] b = new byte[blockLength(in, max)];
+        in.readFully(b);
+        return b;
+    }
+
+    private static int blockLength(DataInputStream in, int max) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > max) throw new IllegalArgumentException("Bad block length " + n);
+        return n;
+    }
+
+    //reads past a block without buffering it
+    static void skipBlock(DataInputStream in) throws IOException {
+        in.skipNBytes(blockLength(in, MAX_MESSAGE));
+    }
+
+    static void write(DataOutputStream out, byte status, byte[] payload) throws IOException {
+        out.writeByte(status);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    //a socket file nobody answers on is left over from a daemon that died, a live one is an error
+    private static void removeStaleSocket(Path socket) throws IOException {
+        if (!Files.exists(socket)) return;
+        boolean live;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            live = true;
+        } catch (IOException e) {
+            live = false;
+        }
+        if (live) throw new IOException("A daemon is already listening on " + socket);
+        Files.delete(socket);
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+}
@@ -0,0 +1,344 @@
+/*
+    *Always-on instrumentation of KMACXOF256 and of encryption and decryption, in memory and of files.
+    *Every operation adds to striped LongAdder counters (calls, bytes, failures) and to a latency
+    *histogram kept per operation type and customization string, so recording from many threads at
+    *once costs a few uncontended increments and no locks. Each such pair gets an int id on first use,
+    *callers with a fixed customization keep it and record by id. Sponges add the permutations they ran in
+    *batches, see KeccakSponge.
+    *
+    *The figures are published as the platform MXBean KMACXOF256:type=CryptoMetrics (CryptoMetricsMXBean),
+    *registered the first time an operation is recorded. Operations on at least kmac.metrics.jfr.bytes
+    *bytes (1 MiB by default) also emit a KMACXOF256.Operation JFR event when a recording is running.
+    *-Dkmac.metrics=false turns all of it off.
+*/
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+public final class CryptoMetrics implements CryptoMetricsMXBean {
+
+    public enum Op { KMACXOF256, ENCRYPT, DECRYPT }
+
+    static final boolean ENABLED = !"false".equals(System.getProperty("kmac.metrics"));
+    private static final long JFR_MIN_BYTES = Long.getLong("kmac.metrics.jfr.bytes", 1 << 20);
+    // distinct (operation, customization) pairs tracked, later ones are counted under OTHER
+    private static final int MAX_KEYS = 64;
+    private static final String OTHER = "(other)";
+    private static final byte[] NONE = new byte[0];
+
+    private static final CryptoMetrics INSTANCE = new CryptoMetrics();
+
+    private final LongAdder permutations = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder tagFailures = new LongAdder();
+    // ids 0 .. count-1 are registered pairs, MAX_KEYS + op.ordinal() is the OTHER entry of op
+    private final Stats[] byId = new Stats[MAX_KEYS + Op.values().length];
+    private volatile int count;
+
+    private CryptoMetrics() {
+        for (Op op : Op.values()) byId[MAX_KEYS + op.ordinal()] = new Stats(op, null);
+    }
+
+    public static CryptoMetrics get() {
+        return INSTANCE;
+    }
+
+    //adds n permutations run outside an operation's own accounting, e.g. by a sponge or a batch
+    static void permutations(long n) {
+        if (ENABLED) INSTANCE.permutations.add(n);
+    }
+
+    /*
+        id of the statistics of op under customization (null for none), registered on first use
+        callers with a fixed customization look it up once and keep it, the lookup itself compares
+        against the registered customizations without allocating
+    */
+    static int id(Op op, byte[] customization) {
+        if (!ENABLED) return -1;
+        byte[] c = customization == null ? NONE : customization;
+        CryptoMetrics m = INSTANCE;
+        int n = m.count;
+        for (int i = 0; i < n; i++) {
+            if (m.byId[i].matches(op, c)) return i;
+        }
+        synchronized (m) {
+            for (int i = n; i < m.count; i++) {
+                if (m.byId[i].matches(op, c)) return i;
+            }
+            if (m.count == MAX_KEYS) return MAX_KEYS + op.ordinal();
+            m.byId[m.count] = new Stats(op, c.clone());
+            return m.count++; // the volatile write publishes the new entry
+        }
+    }
+
+    //records one operation, see record(int, ...)
+    static void record(Op op, byte[] customization, long n, long start, boolean failed) {
+        if (ENABLED) record(id(op, customization), n, start, failed);
+    }
+
+    /*
+        records one operation with the statistics id on n input bytes that started at
+        System.nanoTime() == start, failed marks a rejected tag
+    */
+    static void record(int id, long n, long start, boolean failed) {
+        if (!ENABLED) return;
+        long elapsed = System.nanoTime() - start;
+        Registration.ensure();
+        Stats s = INSTANCE.byId[id];
+        s.calls.increment();
+        s.bytes.add(n);
+        s.latency.record(elapsed);
+        INSTANCE.bytes.add(n);
+        if (failed) {
+            s.failures.increment();
+            INSTANCE.tagFailures.increment();
+        }
+        if (n >= JFR_MIN_BYTES) {
+            OperationEvent e = new OperationEvent();
+            if (e.isEnabled()) {
+                e.operation = s.op.name();
+                e.customization = s.name;
+                e.bytes = n;
+                e.latency = elapsed;
+                e.failed = failed;
+                e.commit();
+            }
+        }
+    }
+
+    @Override
+    public long getPermutations() {
+        return permutations.sum();
+    }
+
+    @Override
+    public long getBytesProcessed() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getTagFailures() {
+        return tagFailures.sum();
+    }
+
+    @Override
+    public OperationStats[] getOperations() {
+        List<OperationStats> out = new ArrayList<>();
+        for (Stats s : byId) {
+            if (s != null && s.calls.sum() > 0) out.add(new OperationStats(s));
+        }
+        return out.toArray(new OperationStats[0]);
+    }
+
+    //ids handed out stay valid, only the figures go back to zero
+    @Override
+    public void reset() {
+        permutations.reset();
+        bytes.reset();
+        tagFailures.reset();
+        for (Stats s : byId) {
+            if (s == null) continue;
+            s.calls.reset();
+            s.bytes.reset();
+            s.failures.reset();
+            s.latency.reset();
+        }
+    }
+
+    private static final class Stats {
+        final Op op;
+        final byte[] customization; // null for OTHER
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Stats(Op op, byte[] customization) {
+            this.op = op;
+            this.customization = customization;
+            this.name = customization == null ? OTHER : new String(customization, StandardCharsets.ISO_8859_1);
+        }
+
+        boolean matches(Op op, byte[] customization) {
+            return this.op == op && Arrays.equals(this.customization, customization);
+        }
+    }
+
+    //snapshot of one operation type and customization string, as shown over JMX
+    public static final class OperationStats {
+        private final String operation;
+        private final String customization;
+        private final long calls;
+        private final long bytes;
+        private final long failures;
+        private final double p50;
+        private final double p99;
+        private final double p999;
+
+        OperationStats(Stats s) {
+            this.operation = s.op.name();
+            this.customization = s.name;
+            this.calls = s.calls.sum();
+            this.bytes = s.bytes.sum();
+            this.failures = s.failures.sum();
+            long[] counts = s.latency.snapshot();
+            this.p50 = LatencyHistogram.percentile(counts, 0.50) / 1000.0;
+            this.p99 = LatencyHistogram.percentile(counts, 0.99) / 1000.0;
+            this.p999 = LatencyHistogram.percentile(counts, 0.999) / 1000.0;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getCustomization() {
+            return customization;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getP50Micros() {
+            return p50;
+        }
+
+        public double getP99Micros() {
+            return p99;
+        }
+
+        public double getP999Micros() {
+            return p999;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s] calls=%d bytes=%d failures=%d p50=%.1fus p99=%.1fus p999=%.1fus",
+                    operation, customization, calls, bytes, failures, p50, p99, p999);
+        }
+    }
+
+    /*
+        log-linear histogram of nanosecond latencies: values below 8 get a bucket each, above that every
+        power of two is split into 8 buckets, so any reported percentile is within 12.5% of the truth
+        values from 2^40 ns (about 18 minutes) up all land in the last bucket
+    */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_EXP = 40;
+        private static final int BUCKETS = SUB + (MAX_EXP - SUB_BITS + 1) * SUB;
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            counts[bucket(nanos)].increment();
+        }
+
+        void reset() {
+            for (LongAdder c : counts) c.reset();
+        }
+
+        long[] snapshot() {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) c[i] = counts[i].sum();
+            return c;
+        }
+
+        static int bucket(long v) {
+            if (v < SUB) return (int) Math.max(v, 0);
+            int e = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXP);
+            int sub = e == MAX_EXP && v >= 1L << (MAX_EXP + 1) ? SUB - 1 : (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+            return SUB + (e - SUB_BITS) * SUB + sub;
+        }
+
+        //largest value that falls into bucket i
+        static long upperBound(int i) {
+            if (i < SUB) return i;
+            int e = (i - SUB) / SUB + SUB_BITS;
+            int sub = (i - SUB) % SUB;
+            return ((long) (SUB + sub + 1) << (e - SUB_BITS)) - 1;
+        }
+
+        //value at quantile q (0 < q <= 1) of the counts, 0 when nothing was recorded
+        static long percentile(long[] counts, double q) {
+            long total = 0;
+            for (long c : counts) total += c;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return upperBound(counts.length - 1);
+        }
+    }
+
+    @Name("KMACXOF256.Operation")
+    @Label("KMACXOF256 Operation")
+    @Category("KMACXOF256")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Customization")
+        String customization;
+
+        @Label("Input Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+        @Label("Tag Rejected")
+        boolean failed;
+    }
+
+    /*
+        registers the MXBean once, the first time something is recorded, so merely loading the
+        sponge code does not start up JMX. If the name is taken (a second class loader) or JMX is
+        unavailable the counters still run, they are just not published
+    */
+    private static final class Registration {
+        static {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                        new ObjectName("KMACXOF256:type=CryptoMetrics"));
+            } catch (JMException | SecurityException e) {
+                // not published, see above
+            }
+        }
+
+        static void ensure() {
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+    *Management interface of CryptoMetrics, registered on the platform MBean server as
+    *KMACXOF256:type=CryptoMetrics and readable from jconsole, jcmd or any JMX client.
+    *Latencies are in microseconds.
+*/
+
+public interface CryptoMetricsMXBean {
+
+    //Keccak-f[1600] permutations executed by all sponges and batched states
+    long getPermutations();
+
+    //input bytes processed by the instrumented operations
+    long getBytesProcessed();
+
+    //cryptograms rejected by decryptKMAC because the tag did not verify
+    long getTagFailures();
+
+    //one entry per operation type and customization string seen so far
+    CryptoMetrics.OperationStats[] getOperations();
+
+    //sets every counter and histogram back to zero
+    void reset();
+}
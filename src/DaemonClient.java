@@ -0,0 +1,160 @@
+/*
+    *Client side of the CryptoDaemon protocol.
+    *A DaemonClient holds one connection open, so a program sending many requests pays only the round
+    *trip on the local socket per request. From the command line:
+    *
+    *   java Main client --socket PATH hash|mac|encrypt|decrypt [--passphrase-file FILE | --passphrase-env VAR]
+    *                    [--out FILE] [FILE]
+    *
+    *reads FILE (standard input when left out) and prints the hex digest for hash and mac, or writes the
+    *cryptogram or plaintext to --out (standard output when left out) for encrypt and decrypt.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+
+public final class DaemonClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public DaemonClient(Path socket) throws IOException {
+        channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    //KMACXOF256("", data, 512, "D")
+    public byte[] hash(byte[] data) throws IOException {
+        return request(CryptoDaemon.OP_HASH, new byte[0], data);
+    }
+
+    //KMACXOF256(key, data, 512, "T")
+    public byte[] mac(byte[] key, byte[] data) throws IOException {
+        return request(CryptoDaemon.OP_MAC, key, data);
+    }
+
+    public byte[] encrypt(byte[] m, String pw) throws IOException {
+        return request(CryptoDaemon.OP_ENCRYPT, pw.getBytes(StandardCharsets.UTF_8), m);
+    }
+
+    public byte[] decrypt(byte[] cryptogram, String pw) throws IOException {
+        return request(CryptoDaemon.OP_DECRYPT, pw.getBytes(StandardCharsets.UTF_8), cryptogram);
+    }
+
+    /*
+        sends one request and waits for its response
+        an error reported by the daemon is thrown as IllegalArgumentException, a busy daemon as IllegalStateException
+    */
+    public synchronized byte[] request(byte op, byte[] key, byte[] data) throws IOException {
+        out.writeByte(op);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+        byte status = in.readByte();
+        byte[] payload = CryptoDaemon.readBlock(in, CryptoDaemon.MAX_RESPONSE);
+        if (status == CryptoDaemon.STATUS_OK) return payload;
+        if (status == CryptoDaemon.STATUS_BUSY) throw new IllegalStateException("Daemon is busy, try again later.");
+        throw new IllegalArgumentException(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /*
+        runs "client" from the command line and returns the exit status
+    */
+    public static int run(String[] args) {
+        Path socket = null;
+        String command = null;
+        Path input = null;
+        Path output = null;
+        String passFile = null;
+        String passEnv = null;
+        String pw = null;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--socket":
+                        socket = Path.of(value(args, ++i));
+                        break;
+                    case "--passphrase-file":
+                        passFile = value(args, ++i);
+                        break;
+                    case "--passphrase-env":
+                        passEnv = value(args, ++i);
+                        break;
+                    case "--out":
+                        output = Path.of(value(args, ++i));
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) throw new IllegalArgumentException("Unknown option: " + args[i]);
+                        if (command == null) command = args[i];
+                        else if (input == null) input = Path.of(args[i]);
+                        else throw new IllegalArgumentException("Only one input file can be given.");
+                }
+            }
+            if (socket == null) throw new IllegalArgumentException("No --socket given.");
+            if (command == null) throw new IllegalArgumentException("No command given.");
+            if (!command.equals("hash") && !command.equals("mac") && !command.equals("encrypt") && !command.equals("decrypt")) {
+                throw new IllegalArgumentException("Unknown command: " + command);
+            }
+            if (!command.equals("hash")) pw = BatchCli.readPassphrase(passFile, passEnv);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java Main client --socket PATH hash|mac|encrypt|decrypt\n"
+                    + "       [--passphrase-file FILE | --passphrase-env VAR] [--out FILE] [FILE]");
+            return 2;
+        }
+
+        try (DaemonClient client = new DaemonClient(socket)) {
+            byte[] data = input == null ? System.in.readAllBytes() : Files.readAllBytes(input);
+            byte[] result;
+            switch (command) {
+                case "hash":
+                    result = client.hash(data);
+                    break;
+                case "mac":
+                    result = client.mac(pw.getBytes(), data);
+                    break;
+                case "encrypt":
+                    result = client.encrypt(data, pw);
+                    break;
+                default:
+                    result = client.decrypt(data, pw);
+            }
+            if (command.equals("hash") || command.equals("mac")) {
+                System.out.println(HexFormat.of().formatHex(result));
+            } else if (output == null) {
+                System.out.write(result);
+                System.out.flush();
+            } else {
+                Files.write(output, result);
+            }
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+}
@@ -0,0 +1,258 @@
+/*
+    *On-disk index of file digests, so repeated hashing runs only read the files that changed.
+    *
+    *Entries are keyed by absolute path and stamped with the file's size, modification time and inode.
+    *A cached digest is reused only while all three still match, anything else hashes the file again.
+    *
+    *   index  = "KMDI" || version (1 byte) || record ...
+    *   record = path length (2 bytes) || path (UTF-8) || size (8) || mtime in ns (8) || inode (8)
+    *            || digest length (1 byte) || digest
+    *
+    *On open the file is parsed once, through a read-only memory mapping, into an in-memory map of the
+    *live entries; later records for a path replace earlier ones. Lookups are served from that map, so
+    *memory grows with the number of files indexed, not with the size of the file. New and changed
+    *entries are only ever appended, and once superseded records outnumber the live ones the file is
+    *rewritten with the live entries alone (compaction), checked on open, after every append and on close.
+    *A record cut short by a crash is dropped on the next open.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+public final class DigestIndex implements AutoCloseable {
+    static final byte VERSION = 1;
+    private static final byte[] MAGIC = {'K', 'M', 'D', 'I'};
+    private static final int HEADER_BYTES = 5;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+    private static final int WRITE_BUFFER = 1 << 16;
+    private static final boolean UNIX = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    /*
+        computes the digest of a file whose cached one is missing or stale
+    */
+    public interface Hasher {
+        byte[] hash(Path file) throws IOException;
+    }
+
+    private static final class Entry {
+        final long size;
+        final long mtime;
+        final long inode;
+        final byte[] digest;
+
+        Entry(long size, long mtime, long inode, byte[] digest) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.digest = digest;
+        }
+
+        boolean matches(Entry stamp) {
+            return size == stamp.size && mtime == stamp.mtime && inode == stamp.inode;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ByteBuffer pending = ByteBuffer.allocate(WRITE_BUFFER);
+    private FileChannel channel;
+    private long records;
+
+    private DigestIndex(Path file) {
+        this.file = file;
+    }
+
+    /*
+        opens the index at file, creating it if it doesn't exist yet
+    */
+    public static DigestIndex open(Path file) throws IOException {
+        DigestIndex index = new DigestIndex(file);
+        long valid = index.load();
+        index.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (valid == 0) {
+            index.channel.truncate(0);
+            index.channel.write(ByteBuffer.wrap(header()));
+            valid = HEADER_BYTES;
+        }
+        index.channel.truncate(valid);
+        index.channel.position(valid);
+        index.compactIfNeeded();
+        return index;
+    }
+
+    /*
+        returns the digest of file, from the index if its size, mtime and inode are unchanged,
+        otherwise from hasher, in which case the new digest is appended to the index
+    */
+    public byte[] digest(Path file, Hasher hasher) throws IOException {
+        String key = key(file);
+        Entry now = stamp(file);
+        Entry cached = entries.get(key);
+        if (cached != null && cached.matches(now)) {
+            return cached.digest.clone();
+        }
+        // the stamp is taken before hashing, so a file changed mid-read is hashed again next time
+        byte[] digest = hasher.hash(file);
+        put(key, new Entry(now.size, now.mtime, now.inode, digest.clone()));
+        return digest;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+        rewrites the index with one record per live entry
+    */
+    public synchronized void compact() throws IOException {
+        flush();
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".part");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER);
+            buf.put(header());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] rec = record(e.getKey(), e.getValue());
+                if (buf.remaining() < rec.length) {
+                    writeFully(out, buf.flip());
+                    buf.clear();
+                }
+                if (rec.length > buf.capacity()) writeFully(out, ByteBuffer.wrap(rec));
+                else buf.put(rec);
+            }
+            writeFully(out, buf.flip());
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        channel.close();
+        FileCryptor.moveIntoPlace(tmp, file);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records = entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+            compactIfNeeded();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) throws IOException {
+        byte[] rec = record(key, entry);
+        entries.put(key, entry);
+        if (pending.remaining() < rec.length) flush();
+        if (rec.length > pending.capacity()) writeFully(channel, ByteBuffer.wrap(rec));
+        else pending.put(rec);
+        records++;
+        compactIfNeeded(); // a long run that keeps re-hashing changed files must not grow the file without bound
+    }
+
+    private void flush() throws IOException {
+        writeFully(channel, pending.flip());
+        pending.clear();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (records > MIN_COMPACT_RECORDS && records - entries.size() > entries.size()) {
+            compact();
+        }
+    }
+
+    /*
+        reads every complete record of the mapped index into entries
+        returns the length of the valid prefix of the file, 0 if it is missing or not an index
+    */
+    private long load() throws IOException {
+        if (!Files.exists(file)) return 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER_BYTES) return 0;
+            if (length > Integer.MAX_VALUE) throw new IllegalStateException("Digest index is too large to map.");
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || map.get() != VERSION) {
+                throw new IllegalArgumentException("Not a digest index: " + file);
+            }
+            int valid = map.position();
+            while (map.remaining() >= 2) {
+                int pathLength = map.getShort() & 0xffff;
+                if (map.remaining() < pathLength + 25) break;
+                byte[] path = new byte[pathLength];
+                map.get(path);
+                long size = map.getLong();
+                long mtime = map.getLong();
+                long inode = map.getLong();
+                int digestLength = map.get() & 0xff;
+                if (map.remaining() < digestLength) break;
+                byte[] digest = new byte[digestLength];
+                map.get(digest);
+                entries.put(new String(path, StandardCharsets.UTF_8), new Entry(size, mtime, inode, digest));
+                records++;
+                valid = map.position();
+            }
+            return valid;
+        }
+    }
+
+    private static byte[] record(String key, Entry e) {
+        byte[] path = key.getBytes(StandardCharsets.UTF_8);
+        if (path.length > 0xffff) throw new IllegalArgumentException("Path is too long for the digest index.");
+        if (e.digest.length > 0xff) throw new IllegalArgumentException("Digest is too long for the digest index.");
+        return ByteBuffer.allocate(2 + path.length + 25 + e.digest.length)
+                .putShort((short) path.length).put(path)
+                .putLong(e.size).putLong(e.mtime).putLong(e.inode)
+                .put((byte) e.digest.length).put(e.digest)
+                .array();
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    //{size, mtime in ns, inode} of file as the index stamps it, for other caches of per-file state
+    static long[] stampOf(Path file) throws IOException {
+        Entry e = stamp(file);
+        return new long[] {e.size, e.mtime, e.inode};
+    }
+
+    //size, mtime and inode of file (inode 0 where the file system has none)
+    private static Entry stamp(Path file) throws IOException {
+        if (UNIX) {
+            Map<String, Object> a = Files.readAttributes(file, "unix:size,lastModifiedTime,ino");
+            return new Entry((Long) a.get("size"), ((FileTime) a.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                    (Long) a.get("ino"), null);
+        }
+        BasicFileAttributes a = Files.readAttributes(file, BasicFileAttributes.class);
+        return new Entry(a.size(), a.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0L, null);
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_BYTES).put(MAGIC).put(VERSION).array();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+    *File to file symmetric encryption and decryption under a passphrase.
+    *Produces exactly the same rand || c || t cryptogram as Main.encryptKMAC, but the file is
+    *streamed through fixed size buffers over a FileChannel, so memory use does not depend on
+    *the size of the file. The next chunk is read on a background thread while the current
+    *one is being XORed with the keystream and absorbed into the tag.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+
+public final class FileCryptor {
+    static final int RAND_BYTES = 64;
+    static final int TAG_BYTES = 64;
+    private static final int CHUNK = 1 << 20; // bytes processed per read
+    private static final int TILE = 16 << 10; // bytes run through both sponges at a time, fits in L1 with room to spare
+
+    private static final int ENCRYPT_ID = CryptoMetrics.id(CryptoMetrics.Op.ENCRYPT, null);
+    private static final int DECRYPT_ID = CryptoMetrics.id(CryptoMetrics.Op.DECRYPT, null);
+
+    private FileCryptor() {
+    }
+
+    /*
+        encrypts the file at in into the cryptogram file at out
+        out = rand || c || t, same layout as Main.encryptKMAC
+    */
+    public static void encrypt(Path in, Path out, String pw) throws IOException {
+        encrypt(in, out, pw, n -> { });
+    }
+
+    /*
+        encrypt with progress called with the byte count of every chunk once it has been written
+        progress may throw an unchecked exception to stop
+        the cryptogram is written to a temporary file next to out and only moved into place once it
+        is complete, so a failed or stopped run never leaves a truncated cryptogram at out
+    */
+    static void encrypt(Path in, Path out, String pw, LongConsumer progress) throws IOException {
+        long start = System.nanoTime();
+        byte[] rand = new byte[RAND_BYTES];
+        CShakeDrbg.current().nextBytes(rand);
+        HashContext[] ctx = keyContexts(rand, pw);
+
+        Path tmp = Files.createTempFile(out.toAbsolutePath().getParent(), out.getFileName().toString(), ".part");
+        boolean complete = false;
+        long n;
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            n = src.size();
+            writeFully(dst, rand, RAND_BYTES);
+            stream(src, 0, n, dst, ctx[0], ctx[1], true, progress);
+            byte[] t = ctx[1].squeeze(TAG_BYTES * 8);
+            writeFully(dst, t, TAG_BYTES);
+            complete = true;
+        } finally {
+            if (!complete) Files.deleteIfExists(tmp);
+        }
+        moveIntoPlace(tmp, out);
+        CryptoMetrics.record(ENCRYPT_ID, n, start, false);
+    }
+
+    /*
+        decrypts the cryptogram file at in into out
+        the plaintext is written to a temporary file next to out and only moved into place
+        once the tag has been verified, so a wrong passphrase never leaves a partial output
+    */
+    public static void decrypt(Path in, Path out, String pw) throws IOException {
+        decrypt(in, out, pw, n -> { });
+    }
+
+    //decrypt with progress as for encrypt, out is never touched when progress stops it
+    static void decrypt(Path in, Path out, String pw, LongConsumer progress) throws IOException {
+        long start = System.nanoTime();
+        Path dir = out.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, out.getFileName().toString(), ".part");
+        boolean verified = false;
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ)) {
+            long size = src.size();
+            if (size < RAND_BYTES + TAG_BYTES) throw new IllegalArgumentException("Cryptogram is too short.");
+
+            byte[] rand = new byte[RAND_BYTES];
+            readFully(src, rand, 0, RAND_BYTES);
+            byte[] tag = new byte[TAG_BYTES];
+            readFully(src, tag, size - TAG_BYTES, TAG_BYTES);
+            HashContext[] ctx = keyContexts(rand, pw);
+
+            long n = size - RAND_BYTES - TAG_BYTES;
+            try (FileChannel dst = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                stream(src, RAND_BYTES, n, dst, ctx[0], ctx[1], false, progress);
+            }
+            byte[] tPrime = ctx[1].squeeze(TAG_BYTES * 8);
+            boolean matched = MessageDigest.isEqual(tag, tPrime);
+            CryptoMetrics.record(DECRYPT_ID, n, start, !matched);
+            if (!matched) {
+                throw new TagMismatchException();
+            }
+            verified = true;
+        } finally {
+            if (!verified) Files.deleteIfExists(tmp);
+        }
+        moveIntoPlace(tmp, out);
+    }
+
+    //a tag that did not verify: wrong passphrase or altered cryptogram
+    static final class TagMismatchException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        TagMismatchException() {
+            super("Tags didn't match");
+        }
+    }
+
+    //moves a verified temporary output over out, atomically where the file system allows it
+    static void moveIntoPlace(Path tmp, Path out) throws IOException {
+        try {
+            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+        derives ke || ka = KMACXOF256(rand || pw, "", 1024, "S") and returns the keystream
+        context KMACXOF256(ke, ..., "SKE") and the tag context KMACXOF256(ka, ..., "SKA")
+    */
+    static HashContext[] keyContexts(byte[] rand, String pw) {
+        byte[][] keys = deriveKeys(rand, pw);
+        byte[] ke = keys[0];
+        byte[] ka = keys[1];
+
+        HashContext keystream = new HashContext();
+        keystream.init(ke, "SKE".getBytes());
+        HashContext tag = new HashContext();
+        tag.init(ka, "SKA".getBytes());
+        return new HashContext[] {keystream, tag};
+    }
+
+    //splits KMACXOF256(rand || pw, "", 1024, "S") into the encryption key ke and the authentication key ka
+    static byte[][] deriveKeys(byte[] rand, String pw) {
+        byte[] keka = FileHash.KMACXOF256(FileHash.concat(rand, pw.getBytes()), "".getBytes(), 1024, "S".getBytes());
+        byte[] ke = new byte[64];
+        System.arraycopy(keka, 0, ke, 0, 64);
+        byte[] ka = new byte[64];
+        System.arraycopy(keka, 64, ka, 0, 64);
+        return new byte[][] {ke, ka};
+    }
+
+    /*
+        XORs length bytes of src starting at position with the keystream and appends them to dst
+        the tag always absorbs the plaintext side: before the XOR when encrypting, after it when decrypting
+    */
+    private static void stream(FileChannel src, long position, long length, FileChannel dst,
+                               HashContext keystream, HashContext tag, boolean encrypt,
+                               LongConsumer progress) throws IOException {
+        ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "FileCryptor-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            byte[] cur = new byte[(int) Math.min(CHUNK, length)];
+            byte[] next = new byte[cur.length];
+
+            int n = (int) Math.min(CHUNK, length);
+            Future<?> pending = readAsync(reader, src, cur, position, n);
+            while (length > 0) {
+                await(pending);
+                length -= n;
+                position += n;
+
+                // start reading the next chunk before working on this one
+                int nextLen = (int) Math.min(CHUNK, length);
+                if (nextLen > 0) pending = readAsync(reader, src, next, position, nextLen);
+
+                crypt(keystream, tag, cur, 0, cur, 0, n, encrypt);
+                writeFully(dst, cur, n);
+                progress.accept(n);
+
+                byte[] swap = cur;
+                cur = next;
+                next = swap;
+                n = nextLen;
+            }
+        } finally {
+            reader.shutdownNow();
+        }
+    }
+
+    /*
+        dst = src XOR keystream over len bytes while tag absorbs the plaintext side, src before the XOR
+        when encrypting and dst after it when decrypting. Both sponges advance one TILE at a time, so
+        every tile is read from memory once and then stays in cache for the other sponge, instead of the
+        whole message being streamed through once for the keystream and again for the tag.
+        src and dst may be the same range, the output is the same as two separate passes
+    */
+    static void crypt(HashContext keystream, HashContext tag, byte[] src, int srcOff, byte[] dst, int dstOff,
+                      int len, boolean encrypt) {
+        for (int done = 0; done < len; done += TILE) {
+            int n = Math.min(TILE, len - done);
+            if (encrypt) tag.update(src, srcOff + done, n);
+            keystream.squeezeXor(src, srcOff + done, dst, dstOff + done, n);
+            if (!encrypt) tag.update(dst, dstOff + done, n);
+        }
+    }
+
+    private static Future<?> readAsync(ExecutorService reader, FileChannel src, byte[] buf, long position, int len) {
+        return reader.submit(() -> {
+            readFully(src, buf, position, len);
+            return null;
+        });
+    }
+
+    private static void await(Future<?> pending) throws IOException {
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //positional read of exactly len bytes
+    static void readFully(FileChannel src, byte[] buf, long position, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) {
+            if (src.read(bb, position + bb.position()) < 0) throw new IOException("Unexpected end of file.");
+        }
+    }
+
+    static void writeFully(FileChannel dst, byte[] buf, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) {
+            dst.write(bb);
+        }
+    }
+}
@@ -11,163 +11,49 @@
 
 */
 
-import java.math.BigInteger;
-import java.util.Arrays;
 
 
-public class FileHash {
-    //definition of constants which are 24
-     private static final long[] keccakfRndc = {
-            0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL,
-            0x8000000080008000L, 0x000000000000808bL, 0x0000000080000001L,
-            0x8000000080008081L, 0x8000000000008009L, 0x000000000000008aL,
-            0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
-            0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L,
-            0x8000000000008003L, 0x8000000000008002L, 0x8000000000000080L,
-            0x000000000000800aL, 0x800000008000000aL, 0x8000000080008081L,
-            0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
-    };
-    
-    
-    private static final int[] keccakfPilane = {
-            10, 7,  11, 17, 18, 3, 5,  16, 8,  21, 24, 4,
-            15, 23, 19, 13, 12, 2, 20, 14, 22, 9,  6,  1
-    };
-     
-     //offsets for the roh function.
-     
-    private static final int[] keccakfRotc = {
-            1,  3,  6,  10, 15, 21, 28, 36, 45, 55, 2,  14,
-            27, 41, 56, 8,  25, 43, 62, 18, 39, 61, 20, 44
-    };
-    
-    //performing keccak permutations
-    //permutation function
-     private static long[] keccak(long[] stateIn, int bitLen, int rounds) {
-        long[] stateOut = stateIn;
-        int l = floorLog(bitLen/25);
-        for (int i = 12 + 2*l - rounds; i < 12 + 2*l; i++) {
-            stateOut = iota(chi(rhoPhi(theta(stateOut))), i); // sec 3.3 FIPS 202
-        }
-        return stateOut;
-    }
-    //stateIn is the input state
-    //stateout is the output state
-    private static long[] theta(long[] stateIn) {
-        long[] stateOut = new long[25];
-        long[] C = new long[5];
+import java.nio.ByteBuffer;
 
-        for (int i = 0; i < 5; i++) {
-            C[i] = stateIn[i] ^ stateIn[i + 5] ^ stateIn[i + 10] ^ stateIn[i + 15] ^ stateIn[i + 20];
-        }
 
-        for (int i = 0; i < 5; i++) {
-            long d = C[(i+4) % 5] ^ rotateLane64(C[(i+1) % 5], 1);
-
-            for (int j = 0; j < 5; j++) {
-                stateOut[i + 5*j] = stateIn[i + 5*j] ^ d;
-            }
-        }
-
-        return stateOut;
-    }
-    //rho and phi function
-    private static long[] rhoPhi(long[] stateIn) {
-        long[] stateOut = new long[25];
-        stateOut[0] = stateIn[0]; // copying first value
-        long t = stateIn[1], temp;
-        int ind;
-        for (int i = 0; i < 24; i++) {
-            ind = keccakfPilane[i];
-            temp = stateIn[ind];
-            stateOut[ind] = rotateLane64(t, keccakfRotc[i]);
-            t = temp;
-        }
-        return stateOut;
-    }
-    
-    /*  The chi function
-        returns the state after applying the chi function
-    */
-     private static long[] chi(long[] stateIn) {
-        long[] stateOut = new long[25];
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 5; j++) {
-                long tmp = ~stateIn[(i+1) % 5 + 5*j] & stateIn[(i+2) % 5 + 5*j];
-                stateOut[i + 5*j] = stateIn[i + 5*j] ^ tmp;
-            }
-        }
-        return stateOut;
-    }
-    
-    /*
-        Applies the round constant to the word at stateIn[0].
-    */
-    private static long[] iota(long[] stateIn, int round) {
-        stateIn[0] ^= keccakfRndc[round];
-        return stateIn;
-    }
-    
-    /*
-        the sponge function for sponge functionality
-    */
-     private static byte[] sponge(byte[] in, int bitLen, int cap) {
-        int rate = 1600 - cap;
-        byte[] padded = in.length % (rate / 8) == 0 ? in : padTenOne(rate, in); // one bit of padding already appended
-        long[][] states = byteArrayToStates(padded, cap);
-        long[] stcml = new long[25];
-        for (long[] st : states) {
-            stcml = keccak(xorStates(stcml, st), 1600, 24); // Keccak[c] restricted to bitLen 1600
-        }
-
-        long[] out = {};
-        int offset = 0;
-        do {
-            out = Arrays.copyOf(out, offset + rate / 64);
-            System.arraycopy(stcml, 0, out, offset, rate / 64);
-            offset += rate / 64;
-            stcml = keccak(stcml, 1600, 24);
-        } while (out.length * 64 < bitLen);
-
-        return stateToByteArray(out, bitLen);
-    }
-     
-    private static byte[] padTenOne(int rate, byte[] in) {
-        int bytesToPad = (rate / 8) - in.length % (rate / 8);
-        byte[] padded = new byte[in.length + bytesToPad];
-        for (int i = 0; i < in.length + bytesToPad; i++) {
-            if (i < in.length) padded[i] = in[i];
-            else if (i==in.length + bytesToPad - 1) padded[i] = (byte) 0x80;
-            else padded[i] = 0;
-        }
-
-        return padded;
-    }
-    
+public class FileHash {
     /*
         ========================== KMACXOF256 FUNCTIONALITY======================================
         the function has to Produce a variable length message digest based on the keccak-f permations
     */
     public static byte[] SHAKE256(byte[] in, int bitLen) {
-        byte[] uin = Arrays.copyOf(in, in.length + 1);
-        int bytesToPad = 136 - in.length % (136); // rate is 136 bytes
-        uin[in.length] = bytesToPad == 1 ? (byte) 0x9f : 0x1f; // pad with suffix defined in FIPS 202 sec. 6.2
-        return sponge(uin, bitLen, 512);
+        HashContext ctx = new HashContext();
+        ctx.initSHAKE256();
+        ctx.update(in);
+        return ctx.squeeze(bitLen);
+    }
+
+    //SHAKE256 of the remaining bytes of a heap, direct or mapped buffer, read in place
+    public static byte[] SHAKE256(ByteBuffer in, int bitLen) {
+        HashContext ctx = new HashContext();
+        ctx.initSHAKE256();
+        ctx.update(in);
+        return ctx.squeeze(bitLen);
     }
     
     /*
         The cSHAKE256 function
-        implements sponge function
-        then concatenates bits
+        absorbs bytepad(encode_string(N) || encode_string(S)) and then the input
+        (see HashContext for the incremental form)
     */
     public static byte[] cSHAKE256(byte[] in, int bitLength, byte[] functionName, byte[] customStr) {
-        if (functionName.length == 0 && customStr.length == 0) return SHAKE256(in, bitLength);
-
-        byte[] fin = concat(encodeString(functionName), encodeString(customStr));
-        fin = concat(bytePad(fin, 136), in);
-        fin = concat(fin, new byte[] {0x04});
+        HashContext ctx = new HashContext();
+        ctx.initCSHAKE256(functionName, customStr);
+        ctx.update(in);
+        return ctx.squeeze(bitLength);
+    }
 
-        return sponge(fin, bitLength, 512);
+    //cSHAKE256 of the remaining bytes of a heap, direct or mapped buffer, read in place
+    public static byte[] cSHAKE256(ByteBuffer in, int bitLength, byte[] functionName, byte[] customStr) {
+        HashContext ctx = new HashContext();
+        ctx.initCSHAKE256(functionName, customStr);
+        ctx.update(in);
+        return ctx.squeeze(bitLength);
     }
     
     /*
@@ -175,191 +61,104 @@ public class FileHash {
         made for producing the plain cryptographic hash text
     */
     public static byte[] KMACXOF256(byte[] key, byte[] in, int bitLength, byte[] customString) {
+        long start = System.nanoTime();
+        HashContext ctx = new HashContext();
+        ctx.init(key, customString);
+        ctx.update(in);
+        byte[] out = ctx.squeeze(bitLength);
+        CryptoMetrics.record(CryptoMetrics.Op.KMACXOF256, customString, in.length, start, false);
+        return out;
+    }
 
-        byte[] newX = concat(concat(bytePad(encodeString(key),136), in), rightEncode(BigInteger.ZERO));
-        return cSHAKE256(newX, bitLength, "KMAC".getBytes(), customString);
+    //KMACXOF256 of the remaining bytes of a heap, direct or mapped buffer, read in place
+    public static byte[] KMACXOF256(byte[] key, ByteBuffer in, int bitLength, byte[] customString) {
+        long start = System.nanoTime();
+        int n = in.remaining();
+        HashContext ctx = new HashContext();
+        ctx.init(key, customString);
+        ctx.update(in);
+        byte[] out = ctx.squeeze(bitLength);
+        CryptoMetrics.record(CryptoMetrics.Op.KMACXOF256, customString, n, start, false);
+        return out;
     }
     
     /*
-        Right encode method/ for rightEncode functionality
-        performs encoding of bits X onto the right side of the code
+        right_encode(0), the only value KMACXOF256 ever right encodes
+        it has always been written as 01 00 here, kept that way so existing tags and cryptograms still verify
     */
-    private static byte[] rightEncode(BigInteger x) {
-        //establishing the validity of x whi should be 0 <= x < 2^2040
-        assert 0 < x.compareTo(new BigInteger(String.valueOf(Math.pow(2, 2040))));
-
-        int n = 1;
-        
-        while (x.compareTo(new BigInteger(String.valueOf((int)Math.pow(2, (8*n))))) != -1) {
-            n++;
-        }
-        
-        byte[] xBytes = x.toByteArray();
-        
-        // handle exception where first byte is zero
-        if ((xBytes[0] == 0) && (xBytes.length > 1)) {
-            byte[] temp = new byte[xBytes.length - 1];
-            System.arraycopy(xBytes, 1, temp, 0, xBytes.length - 1);
-            xBytes = temp;
-        }
-        
-        byte[] output = new byte[xBytes.length + 1];
-        
-        for (int i = 0; i < xBytes.length; i++) {
-            output[xBytes.length - (i+1)] = xBytes[i];
-        }
-        
-        output[0] =(byte)n;
-        return output;
-    }
+    static final byte[] RIGHT_ENCODE_ZERO = {1, 0};
     
     /*
         left encode method
-        it encodes the existing bits onto the left
+        encodes x as n followed by the n bytes of x, lowest byte first, which is the byte order
+        this class has always used (single byte values match SP 800-185 exactly)
+        works on a long so lengths of 2^31 bits and more encode correctly
     */
-    private static byte[] leftEncode(BigInteger x) {
-        //Establishing the Validity of X which should be 0 <= x < 2^2040
-        assert 0 < x.compareTo(new BigInteger(String.valueOf(Math.pow(2, 2040))));
-
-        int n = 1;
-
-        while (x.compareTo(new BigInteger(String.valueOf((int)Math.pow(2, (8*n))))) != -1) {
-            n++;
+    static int leftEncode(long x, byte[] out, int off) {
+        if (x < 0) throw new IllegalArgumentException("Cannot encode a negative value.");
+        int n = encodedBytes(x);
+        out[off] = (byte) n;
+        for (int i = 0; i < n; i++) {
+            out[off + 1 + i] = (byte) (x >>> (8*i));
         }
-       
-        // representation of x in a bytearray
-        byte[] xBytes = x.toByteArray();
-        
-        if ((xBytes[0] == 0) && (xBytes.length > 1)) {
-            byte[] temp = new byte[xBytes.length - 1];
-            System.arraycopy(xBytes, 1, temp, 0, xBytes.length - 1);
-            xBytes = temp;
-        }
-        
-        byte[] output = new byte[xBytes.length + 1];
-        for (int i = 0; i < xBytes.length; i++) {
-            //xBytes[i] = reverseBitsByte(xBytes[i]);
-            output[xBytes.length - (i)] = xBytes[i];
-        }
-        
-        output[0] =(byte)n;
-        return output;
+        return n + 1;
     }
     
-    //encoding string
-    private static byte[] encodeString(byte[] S) {
-        if (S == null || S.length == 0) {
-            return leftEncode(BigInteger.ZERO);
-        } else {
-            
-            return concat(leftEncode(new BigInteger(String.valueOf(S.length << 3))), S);
+    //left encode straight into the sponge, without an intermediate array
+    static void leftEncode(KeccakSponge sponge, long x) {
+        if (x < 0) throw new IllegalArgumentException("Cannot encode a negative value.");
+        int n = encodedBytes(x);
+        sponge.absorb(n);
+        for (int i = 0; i < n; i++) {
+            sponge.absorb((int) (x >>> (8*i)));
         }
     }
     
-    /*
-        bytepad functionality to do padding
-    */
-    private static byte[] bytePad(byte[] X, int w) {
-
-        //validating the condition that w>0
-        assert w > 0;
-        
-        byte[] wEnc = leftEncode(BigInteger.valueOf(w));
-        
-        byte[] z = new byte[w * ((wEnc.length + X.length + w - 1)/w)];
-
-        /* 
-            Concatenates wEnc and X into z (z = wEnc || X)
-            copies wEnc into z from z[0] to z[wEnc.length]
-        */
-        System.arraycopy(wEnc, 0, z, 0, wEnc.length);
-        // copies X into z frm z[wEnc.length] till all X copied into z
-        System.arraycopy(X,0,z,wEnc.length, X.length);
-
-        
-        for (int i = wEnc.length + X.length; i < z.length; i++) {
-            z[i] = (byte) 0;
-        }
-
-        return z;
+    //number of bytes needed for x, at least one
+    private static int encodedBytes(long x) {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(x) + 7) / 8);
     }
     
-    /*
-        rotateLane function to perform bit rotation on given lane
-    */
-    private static long rotateLane64(long x, int y) {
-        return (x << (y%64)) | (x >>> (64 - (y%64)));
-    }
-    
-    //find floorLog 
-    private static int floorLog(int n) {
-        if (n < 0) throw new IllegalArgumentException("Log is undefined for negative numbers.");
-        int exp = -1;
-        while (n > 0) {
-            n = n>>>1;
-            exp++;
-        }
-        return exp;
+    //encoding string
+    static byte[] encodeString(byte[] S) {
+        int len = S == null ? 0 : S.length;
+        byte[] out = new byte[len + 1 + encodedBytes((long) len << 3)];
+        int n = leftEncode((long) len << 3, out, 0);
+        if (len > 0) System.arraycopy(S, 0, out, n, len);
+        return out;
     }
     
-    /*
-        find xor states of bits
-    */
-    private static long[] xorStates(long[] s1, long[] s2) {
-        long[] out = new long[25];
-        for (int i = 0; i < s1.length; i++) {
-            out[i] = s1[i] ^ s2[i];
-        }
-        return out;
+    //encode_string(S) absorbed straight into the sponge
+    static void encodeString(KeccakSponge sponge, byte[] S) {
+        int len = S == null ? 0 : S.length;
+        leftEncode(sponge, (long) len << 3);
+        if (len > 0) sponge.absorb(S, 0, len);
     }
     
     /*
-        convert to array of bytes
+        bytepad functionality to do padding
     */
-    private static byte[] stateToByteArray(long[] state, int bitLen) {
-        if (state.length*64 < bitLen) throw new IllegalArgumentException("State is of insufficient length to produced desired bit length.");
-        byte[] out = new byte[bitLen/8];
-        int wrdInd = 0;
-        while (wrdInd*64 < bitLen) {
-            long word = state[wrdInd++];
-            int fill = wrdInd*64 > bitLen ? (bitLen - (wrdInd - 1) * 64) / 8 : 8;
-            for (int b = 0; b < fill; b++) {
-                byte ubt = (byte) (word>>>(8*b) & 0xFF);
-                out[(wrdInd - 1)*8 + b] = ubt;
-            }
-        }
-
-        return out;
+    static byte[] bytePad(byte[] X, int w) {
+        //validating the condition that w>0
+        if (w <= 0) throw new IllegalArgumentException("Pad width must be positive.");
+        
+        byte[] wEnc = new byte[9];
+        int wLen = leftEncode(w, wEnc, 0);
+        // z = wEnc || X || zeros up to a multiple of w, new arrays are already zero filled
+        byte[] z = new byte[w * ((wLen + X.length + w - 1)/w)];
+        System.arraycopy(wEnc, 0, z, 0, wLen);
+        System.arraycopy(X, 0, z, wLen, X.length);
+        return z;
     }
     
-    //function to convert byte array series to state array series
-    private static long[][] byteArrayToStates(byte[] in, int cap) {
-        long[][] states = new long[(in.length*8)/(1600-cap)][25];
-        int offset = 0;
-        for (int i = 0; i < states.length; i++) {
-            long[] state = new long[25];
-            for (int j = 0; j < (1600-cap)/64; j++) {
-                long word = bytesToWord(offset, in);
-                state[j] = word;
-                offset += 8;
-            }
-           
-            states[i] = state;
-        }
-        return states;
-    }
     /*
-    convert byte to 64bit word
-        Converts the resultant byte to 64bits
+        bytepad(encode_string(key), w) absorbed straight into the sponge
+        w has to be the sponge rate, the zero fill is then just the end of the block
     */
-    private static long bytesToWord(int offset, byte[] in) {
-        if (in.length < offset+8) throw new IllegalArgumentException("Byte range unreachable, index out of range.");
-        
-        long word = 0L;
-        for (int i = 0; i < 8; i++) {
-            word += (((long)in[offset + i]) & 0xff)<<(8*i);
-        }
-        return word;
+    static void bytePadKey(KeccakSponge sponge, byte[] key) {
+        leftEncode(sponge, sponge.rate());
+        encodeString(sponge, key);
+        sponge.fillBlock();
     }
     
     public static byte[] xorBytes(byte[] b1, byte[] b2) {
@@ -381,36 +180,17 @@ public class FileHash {
         return z;
     }
     
-    //convert byte array into hexadecimal representation
+    //convert byte array into hexadecimal representation, "AA BB CC ..."
     public static String bytesToHexString(byte[] b)  {
-        int space = 0;
-
-        StringBuilder hex = new StringBuilder();
-        for (int i = 0; i < b.length; i++) {
-            if(space == 1) {
-                hex.append(" ");
-                space = 0;
-            }
-
-            hex.append(String.format("%02X", b[i]));
-            space++;
-        }
-        return hex.toString();
+        return TextCodec.toHex(b);
     }
     
     /*
         convert string to byte array
-        converts the string generated into a byte array
+        converts the string generated into a byte array, whitespace is skipped
     */
     public static byte[] hexStringToBytes(String s) {
-        s = s.replaceAll("\\s", "");
-        byte[] val = new byte[s.length()/2];
-        for (int i = 0; i < val.length; i++) {
-            int index = i * 2;
-            int j = Integer.parseInt(s.substring(index,index + 2), 16);
-            val[i] = (byte) j;
-        }
-        return val;
+        return TextCodec.fromHex(s);
     }   
     
 }
@@ -0,0 +1,207 @@
+/*
+    *Stateful absorb/squeeze context for KMACXOF256, cSHAKE256 and SHAKE256.
+    *init() absorbs the bytepad headers, update() can then be called any number of times as
+    *data arrives and the first squeeze() appends the closing encoding and padding.
+    *Only the 200 byte sponge state is kept, the message itself is never buffered or copied.
+*/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+public class HashContext {
+    private static final int RATE = 136; // rate of the 256 bit security level in bytes
+    private static final byte[] KMAC_NAME = "KMAC".getBytes();
+
+    /*
+        sponge states after bytepad(encode_string("KMAC") || encode_string(S), 136) for the
+        customization strings Main and the cryptogram code use, computed once at class load
+    */
+    private static final byte[][] PRESET_CUSTOMIZATIONS = {
+            "D".getBytes(), "T".getBytes(), "S".getBytes(), "SKE".getBytes(), "SKA".getBytes()
+    };
+    private static final KeccakSponge[] PRESET_HEADERS = new KeccakSponge[PRESET_CUSTOMIZATIONS.length];
+
+    static {
+        for (int i = 0; i < PRESET_CUSTOMIZATIONS.length; i++) {
+            HashContext ctx = new HashContext();
+            ctx.initCSHAKE256(KMAC_NAME, PRESET_CUSTOMIZATIONS[i]);
+            PRESET_HEADERS[i] = ctx.sponge;
+        }
+    }
+
+    private final KeccakSponge sponge;
+    private boolean initialized;
+    private boolean cshake; // false when running as plain SHAKE256
+    private boolean kmac;
+
+    public HashContext() {
+        sponge = new KeccakSponge(RATE);
+    }
+
+    private HashContext(HashContext other) {
+        sponge = other.sponge.copy();
+        initialized = other.initialized;
+        cshake = other.cshake;
+        kmac = other.kmac;
+    }
+
+    /*
+        independent copy of this context, e.g. of one that has only absorbed the key so far
+        updates to either one do not affect the other
+    */
+    public HashContext copy() {
+        return new HashContext(this);
+    }
+
+    //wipes the sponge state, the context has to be initialized again before further use
+    public void destroy() {
+        sponge.reset();
+        initialized = false;
+    }
+
+    /*
+        starts a KMACXOF256 computation under key with the given customization string
+        equivalent to FileHash.KMACXOF256(key, in, bitLength, customization)
+    */
+    public void init(byte[] key, byte[] customization) {
+        KeccakSponge header = presetHeader(customization);
+        if (header != null) {
+            sponge.copyFrom(header);
+            initialized = true;
+            cshake = true;
+        } else {
+            initCSHAKE256(KMAC_NAME, customization);
+        }
+        FileHash.bytePadKey(sponge, key);
+        kmac = true;
+    }
+
+    /*
+        starts a cSHAKE256 computation, plain SHAKE256 when both strings are empty
+        equivalent to FileHash.cSHAKE256(in, bitLength, functionName, customization)
+    */
+    public void initCSHAKE256(byte[] functionName, byte[] customization) {
+        sponge.reset();
+        kmac = false;
+        initialized = true;
+        cshake = functionName.length != 0 || customization.length != 0;
+        if (cshake) {
+            // bytepad(encode_string(N) || encode_string(S), 136)
+            FileHash.leftEncode(sponge, RATE);
+            FileHash.encodeString(sponge, functionName);
+            FileHash.encodeString(sponge, customization);
+            sponge.fillBlock();
+        }
+    }
+
+    public void initSHAKE256() {
+        initCSHAKE256(new byte[0], new byte[0]);
+    }
+
+    /*
+        mode flag (0 SHAKE256, 1 cSHAKE256, 2 KMACXOF256) and sponge state of a context that has
+        not been squeezed yet, 202 bytes, see MacCheckpoint
+    */
+    void writeState(ByteBuffer out) {
+        requireInitialized();
+        out.put((byte) (kmac ? 2 : cshake ? 1 : 0));
+        sponge.writeState(out);
+    }
+
+    void readState(ByteBuffer in) {
+        int mode = in.get();
+        if (mode < 0 || mode > 2) throw new IllegalArgumentException("Unknown context mode.");
+        sponge.readState(in);
+        kmac = mode == 2;
+        cshake = mode != 0;
+        initialized = true;
+    }
+
+    void requireInitialized() {
+        if (!initialized) throw new IllegalStateException("Context has not been initialized.");
+    }
+
+    //the underlying sponge, for code that continues from the absorbed headers itself
+    KeccakSponge sponge() {
+        return sponge;
+    }
+
+    public void update(byte[] in, int off, int len) {
+        requireInitialized();
+        sponge.absorb(in, off, len);
+    }
+
+    public void update(byte[] in) {
+        update(in, 0, in.length);
+    }
+
+    //absorbs the remaining bytes of a heap, direct or mapped buffer in place, leaving its position at its limit
+    public void update(ByteBuffer in) {
+        requireInitialized();
+        sponge.absorb(in);
+    }
+
+    /*
+        squeeze len output bytes into out starting at off
+        the first call finishes the message, later calls continue the XOF output
+    */
+    public void squeeze(byte[] out, int off, int len) {
+        if (!initialized) throw new IllegalStateException("Context has not been initialized.");
+        if (!sponge.isSqueezing()) finish();
+        sponge.squeeze(out, off, len);
+    }
+
+    //XORs the next len output bytes into buf starting at off, in place (keystream encryption)
+    public void squeezeXor(byte[] buf, int off, int len) {
+        if (!initialized) throw new IllegalStateException("Context has not been initialized.");
+        if (!sponge.isSqueezing()) finish();
+        sponge.squeezeXor(buf, off, len);
+    }
+
+    //out[outOff + i] = in[inOff + i] XOR the next len output bytes
+    public void squeezeXor(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        if (!initialized) throw new IllegalStateException("Context has not been initialized.");
+        if (!sponge.isSqueezing()) finish();
+        sponge.squeezeXor(in, inOff, out, outOff, len);
+    }
+
+    public void squeeze(ByteBuffer out) {
+        if (!initialized) throw new IllegalStateException("Context has not been initialized.");
+        if (!sponge.isSqueezing()) finish();
+        sponge.squeeze(out);
+    }
+
+    public void squeezeXor(ByteBuffer buf) {
+        if (!initialized) throw new IllegalStateException("Context has not been initialized.");
+        if (!sponge.isSqueezing()) finish();
+        sponge.squeezeXor(buf);
+    }
+
+    //squeeze bitLength / 8 bytes into a new array
+    public byte[] squeeze(int bitLength) {
+        byte[] out = new byte[bitLength / 8];
+        squeeze(out, 0, out.length);
+        return out;
+    }
+
+    private static KeccakSponge presetHeader(byte[] customization) {
+        for (int i = 0; i < PRESET_CUSTOMIZATIONS.length; i++) {
+            if (Arrays.equals(PRESET_CUSTOMIZATIONS[i], customization)) return PRESET_HEADERS[i];
+        }
+        return null;
+    }
+
+    private void finish() {
+        if (kmac) {
+            sponge.absorb(FileHash.RIGHT_ENCODE_ZERO, 0, FileHash.RIGHT_ENCODE_ZERO.length);
+        }
+        if (!cshake) {
+            sponge.pad(0x1f); // SHAKE suffix, FIPS 202 sec. 6.2
+        } else {
+            // FileHash.sponge never appended the 10*1 padding when the 0x04 suffix closed a block,
+            // kept that way so existing digests, tags and cryptograms still verify
+            sponge.pad(0x04, sponge.position() != RATE - 1);
+        }
+    }
+}
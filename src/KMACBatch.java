@@ -0,0 +1,175 @@
+/*
+    *Batched KMACXOF256 for many short messages.
+    *Messages are taken WAYS at a time and their sponges are run in lockstep through the permutation
+    *backend's permuteStates, so several independent states are in flight in every step.
+    *Under a single key the "KMAC"/customization header and the key block are absorbed once and the
+    *resulting state is shared by every message, which leaves one permutation per short message.
+    *Results are byte for byte the same as FileHash.KMACXOF256.
+*/
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+public final class KMACBatch {
+    private static final int RATE = 136;
+    private static final int LANES = RATE / 8;
+    private static final KeccakBackend BACKEND = Keccak.backend();
+    private static final int WAYS = Math.max(4, BACKEND.preferredStates());
+
+    private KMACBatch() {
+    }
+
+    //KMACXOF256(key, in[j], bitLength, customString) for every message
+    public static byte[][] KMACXOF256(byte[] key, byte[][] in, int bitLength, byte[] customString) {
+        HashContext ctx = new HashContext();
+        ctx.init(key, customString);
+        byte[][] prefixes = new byte[in.length][];
+        Arrays.fill(prefixes, new byte[0]);
+        return run(ctx.sponge().lanes(), prefixes, in, bitLength);
+    }
+
+    //KMACXOF256(keys[j], in[j], bitLength, customString) for every (key, message) pair
+    public static byte[][] KMACXOF256(byte[][] keys, byte[][] in, int bitLength, byte[] customString) {
+        if (keys.length != in.length) throw new IllegalArgumentException("Need one key per message.");
+        HashContext ctx = new HashContext();
+        ctx.initCSHAKE256("KMAC".getBytes(), customString);
+        byte[][] prefixes = new byte[keys.length][];
+        for (int j = 0; j < keys.length; j++) {
+            prefixes[j] = FileHash.bytePad(FileHash.encodeString(keys[j]), RATE);
+        }
+        return run(ctx.sponge().lanes(), prefixes, in, bitLength);
+    }
+
+    //checks tags[j] against KMACXOF256(key, in[j], 8 * tags[j].length, customString)
+    public static boolean[] verify(byte[] key, byte[][] in, byte[][] tags, byte[] customString) {
+        return compare(KMACXOF256(key, in, tagBits(tags), customString), tags);
+    }
+
+    public static boolean[] verify(byte[][] keys, byte[][] in, byte[][] tags, byte[] customString) {
+        return compare(KMACXOF256(keys, in, tagBits(tags), customString), tags);
+    }
+
+    /*
+        every message j is absorbed as prefixes[j] || in[j] || right_encode(0) followed by the cSHAKE padding,
+        starting from the shared header state
+        messages are sorted by length so the states of one group finish at about the same step
+    */
+    private static byte[][] run(long[] header, byte[][] prefixes, byte[][] in, int bitLength) {
+        if (prefixes.length != in.length) throw new IllegalArgumentException("Need one prefix per message.");
+        int count = in.length;
+        byte[][] out = new byte[count][];
+        Integer[] order = new Integer[count];
+        for (int j = 0; j < count; j++) order[j] = j;
+        Arrays.sort(order, Comparator.comparingLong(j -> (long) prefixes[j].length + in[j].length));
+
+        long[] a = new long[25 * WAYS];
+        long[] st = new long[25];
+        for (int g = 0; g < count; g += WAYS) {
+            int n = Math.min(WAYS, count - g);
+            int[] blocks = new int[n];
+            int steps = 0;
+            for (int k = 0; k < n; k++) {
+                int j = order[g + k];
+                for (int i = 0; i < 25; i++) a[i*n + k] = header[i];
+                blocks[k] = (prefixes[j].length + in[j].length + 2) / RATE + 1;
+                steps = Math.max(steps, blocks[k]);
+            }
+
+            for (int t = 0; t < steps; t++) {
+                for (int k = 0; k < n; k++) {
+                    if (t < blocks[k]) {
+                        int j = order[g + k];
+                        xorBlock(a, n, k, prefixes[j], in[j], t, t == blocks[k] - 1);
+                    }
+                }
+                BACKEND.permuteStates(a, n, Keccak.ROUNDS);
+                CryptoMetrics.permutations(n);
+                for (int k = 0; k < n; k++) {
+                    if (t == blocks[k] - 1) {
+                        for (int i = 0; i < 25; i++) st[i] = a[i*n + k];
+                        out[order[g + k]] = squeeze(st, bitLength / 8);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /*
+        XORs block t of prefix || msg || right_encode(0) || pad into state k
+        whole lanes of the prefix or the message are loaded directly, only the last block goes byte by byte
+    */
+    private static void xorBlock(long[] a, int n, int k, byte[] prefix, byte[] msg, int t, boolean last) {
+        int p = prefix.length;
+        long total = (long) p + msg.length;
+        long base = (long) t * RATE;
+        for (int lane = 0; lane < LANES; lane++) {
+            long o = base + 8L * lane;
+            long w;
+            if (o + 8 <= p) {
+                w = word(prefix, (int) o);
+            } else if (o >= p && o + 8 <= total) {
+                w = word(msg, (int) (o - p));
+            } else {
+                w = 0;
+                for (int i = 0; i < 8; i++) {
+                    w |= (long) (streamByte(prefix, msg, o + i) & 0xff) << (8 * i);
+                }
+            }
+            a[lane*n + k] ^= w;
+        }
+        // FileHash.sponge left out the final bit when the 0x04 suffix byte closed the block, see HashContext
+        if (last && (total + 2) % RATE != RATE - 1) {
+            a[(LANES - 1)*n + k] ^= 0x80L << 56;
+        }
+    }
+
+    //byte o of prefix || msg || right_encode(0) || 0x04 || 0 ...
+    private static int streamByte(byte[] prefix, byte[] msg, long o) {
+        long total = (long) prefix.length + msg.length;
+        if (o < prefix.length) return prefix[(int) o];
+        if (o < total) return msg[(int) (o - prefix.length)];
+        if (o == total) return 0x01; // right_encode(0) as FileHash.rightEncode writes it
+        if (o == total + 2) return 0x04;
+        return 0;
+    }
+
+    private static byte[] squeeze(long[] st, int len) {
+        byte[] out = new byte[len];
+        for (int i = 0, pos = 0; i < len; i++, pos++) {
+            if (pos == RATE) {
+                BACKEND.permute(st, Keccak.ROUNDS);
+                CryptoMetrics.permutations(1);
+                pos = 0;
+            }
+            out[i] = (byte) (st[pos >>> 3] >>> ((pos & 7) << 3));
+        }
+        return out;
+    }
+
+    private static long word(byte[] in, int off) {
+        long w = 0L;
+        for (int i = 0; i < 8; i++) {
+            w |= (((long) in[off + i]) & 0xff) << (8 * i);
+        }
+        return w;
+    }
+
+    private static int tagBits(byte[][] tags) {
+        int len = tags.length == 0 ? 0 : tags[0].length;
+        for (byte[] t : tags) {
+            if (t.length != len) throw new IllegalArgumentException("All tags must have the same length.");
+        }
+        return len * 8;
+    }
+
+    private static boolean[] compare(byte[][] computed, byte[][] tags) {
+        boolean[] ok = new boolean[tags.length];
+        for (int j = 0; j < tags.length; j++) {
+            ok[j] = MessageDigest.isEqual(computed[j], tags[j]);
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+    *Opt-in cache of KMACXOF256 contexts that have already absorbed the
+    *bytepad("KMAC", S) header and the bytepad(encode_string(key)) block.
+    *Tagging many short messages under the same key then starts from the cached state and skips
+    *those two permutations. Every use gets its own copy of the cached context, entries are evicted
+    *least recently used first once maxEntries is reached, and evicted or cleared entries have their
+    *sponge state and key copy overwritten.
+*/
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public final class KMACKeyCache {
+    private final int maxEntries;
+    private final LinkedHashMap<Entry, HashContext> cache;
+
+    public KMACKeyCache(int maxEntries) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("Cache must hold at least one entry.");
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Entry, HashContext> eldest) {
+                if (size() <= KMACKeyCache.this.maxEntries) return false;
+                wipe(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /*
+        a fresh KMACXOF256 context for (key, customization), ready for update()
+        the keyed prefix is only absorbed on the first request for the pair
+    */
+    public HashContext context(byte[] key, byte[] customization) {
+        Entry probe = new Entry(key, customization);
+        synchronized (cache) {
+            HashContext keyed = cache.get(probe);
+            if (keyed != null) return keyed.copy();
+        }
+        HashContext keyed = new HashContext();
+        keyed.init(key, customization);
+        HashContext copy = keyed.copy();
+        Entry stored = new Entry(key.clone(), customization.clone());
+        HashContext existing;
+        synchronized (cache) {
+            existing = cache.putIfAbsent(stored, keyed);
+        }
+        // another thread cached the pair meanwhile, its entry stays and this one is wiped
+        if (existing != null) wipe(stored, keyed);
+        return copy;
+    }
+
+    //same result as FileHash.KMACXOF256(key, in, bitLength, customString)
+    public byte[] KMACXOF256(byte[] key, byte[] in, int bitLength, byte[] customString) {
+        long start = System.nanoTime();
+        HashContext ctx = context(key, customString);
+        ctx.update(in);
+        byte[] out = ctx.squeeze(bitLength);
+        ctx.destroy();
+        CryptoMetrics.record(CryptoMetrics.Op.KMACXOF256, customString, in.length, start, false);
+        return out;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    //drops and wipes every cached key state
+    public void clear() {
+        synchronized (cache) {
+            Iterator<Map.Entry<Entry, HashContext>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Entry, HashContext> e = it.next();
+                wipe(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static void wipe(Entry entry, HashContext keyed) {
+        keyed.destroy();
+        Arrays.fill(entry.key, (byte) 0);
+    }
+
+    //(key, customization) pair used as the map key
+    private static final class Entry {
+        private final byte[] key;
+        private final byte[] customization;
+        private final int hash;
+
+        Entry(byte[] key, byte[] customization) {
+            this.key = key;
+            this.customization = customization;
+            this.hash = 31 * Arrays.hashCode(key) + Arrays.hashCode(customization);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return MessageDigest.isEqual(key, other.key) && Arrays.equals(customization, other.customization);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
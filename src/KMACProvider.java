@@ -0,0 +1,231 @@
+/*
+    *JCA provider "KMACXOF256" offering the app's primitives to code written against the standard
+    *MessageDigest and Mac APIs (DigestInputStream, Mac based pipelines, NIO services):
+    *
+    *   MessageDigest  SHAKE256                 SHAKE256, 512 bit output
+    *   MessageDigest  cSHAKE256/<N>/<S>        cSHAKE256 with function name N and customization S
+    *                                           (N has no '/'), plain "cSHAKE256" has both empty
+    *   Mac            KMACXOF256               key from Key.getEncoded(), customization and output
+    *                                           length from a KMACParameterSpec, "" and 512 bit by default
+    *
+    *update(ByteBuffer) absorbs heap, direct and mapped buffers in place without copying them to the
+    *heap first. The engines are Cloneable, so a digest or MAC that has absorbed a common prefix can be
+    *cloned and each copy finished with its own suffix. digest(buf, off, len) on a MessageDigest
+    *squeezes exactly len bytes, so any output length can be had from the XOFs.
+    *Outputs are those of FileHash.SHAKE256, cSHAKE256 and KMACXOF256.
+    *
+    *install() adds the provider to the JVM once, MessageDigest.getInstance("SHAKE256", KMACProvider.NAME)
+    *etc. then find it. Instances are not thread safe, as usual for JCA engines.
+*/
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigestSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import javax.crypto.MacSpi;
+
+
+public final class KMACProvider extends Provider {
+    public static final String NAME = "KMACXOF256";
+    private static final String CSHAKE = "cSHAKE256";
+    private static final int DEFAULT_BITS = 512;
+
+    public KMACProvider() {
+        super(NAME, "1.0", "SHAKE256, cSHAKE256 and KMACXOF256 digests and MACs");
+        putService(new EngineService(this, "MessageDigest", "SHAKE256", Digest.class.getName()));
+        putService(new EngineService(this, "MessageDigest", CSHAKE, Digest.class.getName()));
+        putService(new EngineService(this, "Mac", "KMACXOF256", KMAC.class.getName()));
+    }
+
+    //registers the provider with the JVM unless it already is, returns it
+    public static synchronized Provider install() {
+        Provider p = Security.getProvider(NAME);
+        if (p != null) return p;
+        p = new KMACProvider();
+        Security.addProvider(p);
+        return p;
+    }
+
+    //also answers cSHAKE256/<N>/<S> for any N and S, which cannot all be listed up front
+    @Override
+    public synchronized Service getService(String type, String algorithm) {
+        if ("MessageDigest".equals(type) && algorithm.regionMatches(true, 0, CSHAKE + "/", 0, CSHAKE.length() + 1)) {
+            return new EngineService(this, type, algorithm, Digest.class.getName());
+        }
+        return super.getService(type, algorithm);
+    }
+
+    //creates the engines directly rather than through reflection
+    private static final class EngineService extends Service {
+        EngineService(Provider provider, String type, String algorithm, String className) {
+            super(provider, type, algorithm, className, null, null);
+        }
+
+        @Override
+        public Object newInstance(Object constructorParameter) throws NoSuchAlgorithmException {
+            String alg = getAlgorithm();
+            if (getType().equals("Mac")) return new KMAC();
+            if (alg.equalsIgnoreCase("SHAKE256")) return new Digest(new byte[0], new byte[0]);
+            String[] parts = alg.split("/", 3);
+            if (parts.length == 1) return new Digest(new byte[0], new byte[0]);
+            if (parts.length != 3) throw new NoSuchAlgorithmException("Expected cSHAKE256/<N>/<S>: " + alg);
+            return new Digest(parts[1].getBytes(), parts[2].getBytes());
+        }
+    }
+
+    //customization string and output length of a KMACXOF256 Mac
+    public static final class KMACParameterSpec implements AlgorithmParameterSpec {
+        private final byte[] customization;
+        private final int bitLength;
+
+        public KMACParameterSpec(byte[] customization, int bitLength) {
+            if (bitLength <= 0 || bitLength % 8 != 0) throw new IllegalArgumentException("Output length must be a positive multiple of 8 bits.");
+            this.customization = customization.clone();
+            this.bitLength = bitLength;
+        }
+
+        public byte[] getCustomization() {
+            return customization.clone();
+        }
+
+        public int getBitLength() {
+            return bitLength;
+        }
+    }
+
+    //SHAKE256 / cSHAKE256 MessageDigest engine
+    public static final class Digest extends MessageDigestSpi implements Cloneable {
+        private final HashContext initial; // after the cSHAKE256 header, reset starts from a copy of it
+        private HashContext ctx;
+
+        Digest(byte[] functionName, byte[] customization) {
+            initial = new HashContext();
+            initial.initCSHAKE256(functionName, customization);
+            ctx = initial.copy();
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return DEFAULT_BITS / 8;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            ctx.update(new byte[] {input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            ctx.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            ctx.update(input);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            byte[] out = ctx.squeeze(DEFAULT_BITS);
+            engineReset();
+            return out;
+        }
+
+        //squeezes exactly len bytes
+        @Override
+        protected int engineDigest(byte[] buf, int offset, int len) {
+            ctx.squeeze(buf, offset, len);
+            engineReset();
+            return len;
+        }
+
+        @Override
+        protected void engineReset() {
+            ctx.destroy();
+            ctx = initial.copy();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            Digest c = (Digest) super.clone();
+            c.ctx = ctx.copy();
+            return c;
+        }
+    }
+
+    //KMACXOF256 Mac engine
+    public static final class KMAC extends MacSpi implements Cloneable {
+        private HashContext keyed; // after the KMAC header and the key, reset starts from a copy of it
+        private HashContext ctx;
+        private int bitLength = DEFAULT_BITS;
+
+        @Override
+        protected int engineGetMacLength() {
+            return bitLength / 8;
+        }
+
+        @Override
+        protected void engineInit(Key key, AlgorithmParameterSpec params) throws InvalidKeyException, InvalidAlgorithmParameterException {
+            byte[] k = key == null ? null : key.getEncoded();
+            if (k == null) throw new InvalidKeyException("Key must have an encoded form.");
+            byte[] customization = new byte[0];
+            int bits = DEFAULT_BITS;
+            if (params instanceof KMACParameterSpec) {
+                customization = ((KMACParameterSpec) params).customization;
+                bits = ((KMACParameterSpec) params).bitLength;
+            } else if (params != null) {
+                throw new InvalidAlgorithmParameterException("Expected a KMACParameterSpec.");
+            }
+            if (keyed != null) keyed.destroy();
+            if (ctx != null) ctx.destroy();
+            keyed = new HashContext();
+            keyed.init(k, customization);
+            Arrays.fill(k, (byte) 0);
+            ctx = keyed.copy();
+            bitLength = bits;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            ctx.update(new byte[] {input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            ctx.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            ctx.update(input);
+        }
+
+        @Override
+        protected byte[] engineDoFinal() {
+            byte[] out = ctx.squeeze(bitLength);
+            engineReset();
+            return out;
+        }
+
+        @Override
+        protected void engineReset() {
+            if (keyed == null) return; // not initialized yet
+            ctx.destroy();
+            ctx = keyed.copy();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            KMAC c = (KMAC) super.clone();
+            c.keyed = keyed == null ? null : keyed.copy();
+            c.ctx = ctx == null ? null : ctx.copy();
+            return c;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/*
+    *In-place Keccak-f[1600] permutation used by the sponge in FileHash.
+    *The 25 lanes are held in locals for the whole call and every step (theta, rho, pi, chi, iota)
+    *is unrolled, so a permutation touches the state array once on entry and once on exit
+    *and allocates nothing.
+*/
+
+public final class Keccak {
+
+    //number of rounds of the full Keccak-f[1600] permutation
+    public static final int ROUNDS = 24;
+
+    //round constants for the iota step, same table as FileHash
+    private static final long[] RC = {
+            0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL,
+            0x8000000080008000L, 0x000000000000808bL, 0x0000000080000001L,
+            0x8000000080008081L, 0x8000000000008009L, 0x000000000000008aL,
+            0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+            0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L,
+            0x8000000000008003L, 0x8000000000008002L, 0x8000000000000080L,
+            0x000000000000800aL, 0x800000008000000aL, 0x8000000080008081L,
+            0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+
+    //Keccak-f[1600] of the all zero state, the known answer every backend is checked against
+    private static final long[] ZERO_STATE_KAT = {
+            0xf1258f7940e1dde7L, 0x84d5ccf933c0478aL, 0xd598261ea65aa9eeL, 0xbd1547306f80494dL, 0x8b284e056253d057L,
+            0xff97a42d7f8e6fd4L, 0x90fee5a0a44647c4L, 0x8c5bda0cd6192e76L, 0xad30a6f71b19059cL, 0x30935ab7d08ffc64L,
+            0xeb5aa93f2317d635L, 0xa9a6e6260d712103L, 0x81a57c16dbcf555fL, 0x43b831cd0347c826L, 0x01f22f1a11a5569fL,
+            0x05e5635a21d9ae61L, 0x64befef28cc970f2L, 0x613670957bc46611L, 0xb87c5a554fd00ecbL, 0x8c3ee88a1ccf32c8L,
+            0x940c7922ae3a2614L, 0x1841f924a2c509e4L, 0x16f53526e70465c2L, 0x75f644e97f30a13bL, 0xeaf1ff7b5ceca249L
+    };
+
+    //narrowest vector, in states, the auto backend selection takes the vector backend for
+    private static final int VECTOR_MIN_STATES = 8;
+
+    private Keccak() {
+    }
+
+    private static final class Selected {
+        static final KeccakBackend BACKEND = selectBackend();
+    }
+
+    /*
+        the permutation backend chosen at startup
+        -Dkeccak.backend=scalar|vector forces one, the default "auto" takes the vector backend only when
+        the CPU has vectors of VECTOR_MIN_STATES longs (AVX-512); with narrower vectors the two interleaved
+        scalar permutations were faster. A backend failing its self-test is never used
+    */
+    public static KeccakBackend backend() {
+        return Selected.BACKEND;
+    }
+
+    private static KeccakBackend selectBackend() {
+        String wanted = System.getProperty("keccak.backend", "auto");
+        if (!wanted.equals("auto") && !wanted.equals("scalar") && !wanted.equals("vector")) {
+            throw new IllegalArgumentException("Unknown keccak.backend: " + wanted);
+        }
+        KeccakBackend scalar = new ScalarKeccakBackend();
+        if (!selfTest(scalar)) throw new IllegalStateException("Keccak permutation failed its self-test.");
+        if (wanted.equals("scalar")) return scalar;
+
+        KeccakBackend vector = loadVectorBackend();
+        if (vector == null || !selfTest(vector)) {
+            if (wanted.equals("vector")) System.err.println("keccak.backend=vector is not available, using scalar");
+            return scalar;
+        }
+        if (wanted.equals("auto") && vector.preferredStates() < VECTOR_MIN_STATES) return scalar;
+        return vector;
+    }
+
+    //the vector backend needs --add-modules jdk.incubator.vector, so it is only linked if that is present
+    private static KeccakBackend loadVectorBackend() {
+        try {
+            return (KeccakBackend) Class.forName("VectorKeccakBackend").getDeclaredMethod("create").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /*
+        known answer test of a backend: the zero state must permute to ZERO_STATE_KAT, and 1 to 8 interleaved
+        states with distinct contents must come out as permute() leaves each of them, for 24 and 12 rounds
+    */
+    static boolean selfTest(KeccakBackend backend) {
+        long[] z = new long[25];
+        backend.permute(z, ROUNDS);
+        if (!java.util.Arrays.equals(z, ZERO_STATE_KAT)) return false;
+
+        long[] one = new long[25];
+        for (int rounds = ROUNDS; rounds >= 12; rounds -= 12) {
+            for (int n = 1; n <= 8; n++) {
+                long[] a = new long[25 * n];
+                for (int i = 0; i < a.length; i++) a[i] = ZERO_STATE_KAT[i % 25] * (i + 1);
+                long[] in = a.clone();
+                backend.permuteStates(a, n, rounds);
+                for (int k = 0; k < n; k++) {
+                    for (int i = 0; i < 25; i++) one[i] = in[i*n + k];
+                    permute(one, rounds);
+                    for (int i = 0; i < 25; i++) {
+                        if (a[i*n + k] != one[i]) return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    //iota constant of round i
+    static long roundConstant(int i) {
+        return RC[i];
+    }
+
+    //full 24 round permutation of the 25 lane state, in place
+    public static void permute(long[] a) {
+        permute(a, ROUNDS);
+    }
+
+    /*
+        permutes the state in place with the last `rounds` rounds of Keccak-f[1600]
+        (rounds 24 - rounds .. 23, the same round indices FileHash.keccak used)
+    */
+    public static void permute(long[] a, int rounds) {
+        if (rounds < 1 || rounds > ROUNDS) throw new IllegalArgumentException("Rounds must be between 1 and 24.");
+
+        long a00 = a[0],  a01 = a[1],  a02 = a[2],  a03 = a[3],  a04 = a[4];
+        long a05 = a[5],  a06 = a[6],  a07 = a[7],  a08 = a[8],  a09 = a[9];
+        long a10 = a[10], a11 = a[11], a12 = a[12], a13 = a[13], a14 = a[14];
+        long a15 = a[15], a16 = a[16], a17 = a[17], a18 = a[18], a19 = a[19];
+        long a20 = a[20], a21 = a[21], a22 = a[22], a23 = a[23], a24 = a[24];
+
+        for (int i = ROUNDS - rounds; i < ROUNDS; i++) {
+            //theta
+            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+
+            long d1 = (c1 << 1 | c1 >>> 63) ^ c4;
+            long d2 = (c2 << 1 | c2 >>> 63) ^ c0;
+            long d3 = (c3 << 1 | c3 >>> 63) ^ c1;
+            long d4 = (c4 << 1 | c4 >>> 63) ^ c2;
+            long d0 = (c0 << 1 | c0 >>> 63) ^ c3;
+
+            a00 ^= d1; a05 ^= d1; a10 ^= d1; a15 ^= d1; a20 ^= d1;
+            a01 ^= d2; a06 ^= d2; a11 ^= d2; a16 ^= d2; a21 ^= d2;
+            a02 ^= d3; a07 ^= d3; a12 ^= d3; a17 ^= d3; a22 ^= d3;
+            a03 ^= d4; a08 ^= d4; a13 ^= d4; a18 ^= d4; a23 ^= d4;
+            a04 ^= d0; a09 ^= d0; a14 ^= d0; a19 ^= d0; a24 ^= d0;
+
+            //rho and pi
+            c1  = a01 <<  1 | a01 >>> 63;
+            a01 = a06 << 44 | a06 >>> 20;
+            a06 = a09 << 20 | a09 >>> 44;
+            a09 = a22 << 61 | a22 >>>  3;
+            a22 = a14 << 39 | a14 >>> 25;
+            a14 = a20 << 18 | a20 >>> 46;
+            a20 = a02 << 62 | a02 >>>  2;
+            a02 = a12 << 43 | a12 >>> 21;
+            a12 = a13 << 25 | a13 >>> 39;
+            a13 = a19 <<  8 | a19 >>> 56;
+            a19 = a23 << 56 | a23 >>>  8;
+            a23 = a15 << 41 | a15 >>> 23;
+            a15 = a04 << 27 | a04 >>> 37;
+            a04 = a24 << 14 | a24 >>> 50;
+            a24 = a21 <<  2 | a21 >>> 62;
+            a21 = a08 << 55 | a08 >>>  9;
+            a08 = a16 << 45 | a16 >>> 19;
+            a16 = a05 << 36 | a05 >>> 28;
+            a05 = a03 << 28 | a03 >>> 36;
+            a03 = a18 << 21 | a18 >>> 43;
+            a18 = a17 << 15 | a17 >>> 49;
+            a17 = a11 << 10 | a11 >>> 54;
+            a11 = a07 <<  6 | a07 >>> 58;
+            a07 = a10 <<  3 | a10 >>> 61;
+            a10 = c1;
+
+            //chi, one plane at a time
+            c0 = a00 ^ (~a01 & a02);
+            c1 = a01 ^ (~a02 & a03);
+            a02 ^= ~a03 & a04;
+            a03 ^= ~a04 & a00;
+            a04 ^= ~a00 & a01;
+            a00 = c0; a01 = c1;
+
+            c0 = a05 ^ (~a06 & a07);
+            c1 = a06 ^ (~a07 & a08);
+            a07 ^= ~a08 & a09;
+            a08 ^= ~a09 & a05;
+            a09 ^= ~a05 & a06;
+            a05 = c0; a06 = c1;
+
+            c0 = a10 ^ (~a11 & a12);
+            c1 = a11 ^ (~a12 & a13);
+            a12 ^= ~a13 & a14;
+            a13 ^= ~a14 & a10;
+            a14 ^= ~a10 & a11;
+            a10 = c0; a11 = c1;
+
+            c0 = a15 ^ (~a16 & a17);
+            c1 = a16 ^ (~a17 & a18);
+            a17 ^= ~a18 & a19;
+            a18 ^= ~a19 & a15;
+            a19 ^= ~a15 & a16;
+            a15 = c0; a16 = c1;
+
+            c0 = a20 ^ (~a21 & a22);
+            c1 = a21 ^ (~a22 & a23);
+            a22 ^= ~a23 & a24;
+            a23 ^= ~a24 & a20;
+            a24 ^= ~a20 & a21;
+            a20 = c0; a21 = c1;
+
+            //iota
+            a00 ^= RC[i];
+        }
+
+        a[0]  = a00; a[1]  = a01; a[2]  = a02; a[3]  = a03; a[4]  = a04;
+        a[5]  = a05; a[6]  = a06; a[7]  = a07; a[8]  = a08; a[9]  = a09;
+        a[10] = a10; a[11] = a11; a[12] = a12; a[13] = a13; a[14] = a14;
+        a[15] = a15; a[16] = a16; a[17] = a17; a[18] = a18; a[19] = a19;
+        a[20] = a20; a[21] = a21; a[22] = a22; a[23] = a23; a[24] = a24;
+    }
+
+    /*
+        permutes n independent states in lockstep with the last `rounds` rounds
+        the states are interleaved lane by lane, lane i of state k is a[i*n + k]
+        states are taken two at a time and the two permutations are interleaved instruction by
+        instruction, so the CPU always has two independent dependency chains to work on
+    */
+    public static void permuteInterleaved(long[] a, int n, int rounds) {
+        if (a.length < 25*n) throw new IllegalArgumentException("State array is too short.");
+        if (rounds < 1 || rounds > ROUNDS) throw new IllegalArgumentException("Rounds must be between 1 and 24.");
+        int k = 0;
+        for (; k + 1 < n; k += 2) {
+            permutePair(a, n, k, rounds);
+        }
+        if (k < n) {
+            long[] b = new long[25];
+            for (int i = 0; i < 25; i++) b[i] = a[i*n + k];
+            permute(b, rounds);
+            for (int i = 0; i < 25; i++) a[i*n + k] = b[i];
+        }
+    }
+
+    //two interleaved copies of the unrolled round of permute(), for states k (suffix x) and j = k + 1 (suffix y)
+    private static void permutePair(long[] a, int n, int k, int rounds) {
+        int j = k + 1;
+        long a00x = a[k], a01x = a[n + k], a02x = a[2*n + k], a03x = a[3*n + k], a04x = a[4*n + k];
+        long a05x = a[5*n + k], a06x = a[6*n + k], a07x = a[7*n + k], a08x = a[8*n + k], a09x = a[9*n + k];
+        long a10x = a[10*n + k], a11x = a[11*n + k], a12x = a[12*n + k], a13x = a[13*n + k], a14x = a[14*n + k];
+        long a15x = a[15*n + k], a16x = a[16*n + k], a17x = a[17*n + k], a18x = a[18*n + k], a19x = a[19*n + k];
+        long a20x = a[20*n + k], a21x = a[21*n + k], a22x = a[22*n + k], a23x = a[23*n + k], a24x = a[24*n + k];
+        long a00y = a[j], a01y = a[n + j], a02y = a[2*n + j], a03y = a[3*n + j], a04y = a[4*n + j];
+        long a05y = a[5*n + j], a06y = a[6*n + j], a07y = a[7*n + j], a08y = a[8*n + j], a09y = a[9*n + j];
+        long a10y = a[10*n + j], a11y = a[11*n + j], a12y = a[12*n + j], a13y = a[13*n + j], a14y = a[14*n + j];
+        long a15y = a[15*n + j], a16y = a[16*n + j], a17y = a[17*n + j], a18y = a[18*n + j], a19y = a[19*n + j];
+        long a20y = a[20*n + j], a21y = a[21*n + j], a22y = a[22*n + j], a23y = a[23*n + j], a24y = a[24*n + j];
+
+        for (int i = ROUNDS - rounds; i < ROUNDS; i++) {
+            //theta
+            long c0x = a00x ^ a05x ^ a10x ^ a15x ^ a20x;
+            long c0y = a00y ^ a05y ^ a10y ^ a15y ^ a20y;
+            long c1x = a01x ^ a06x ^ a11x ^ a16x ^ a21x;
+            long c1y = a01y ^ a06y ^ a11y ^ a16y ^ a21y;
+            long c2x = a02x ^ a07x ^ a12x ^ a17x ^ a22x;
+            long c2y = a02y ^ a07y ^ a12y ^ a17y ^ a22y;
+            long c3x = a03x ^ a08x ^ a13x ^ a18x ^ a23x;
+            long c3y = a03y ^ a08y ^ a13y ^ a18y ^ a23y;
+            long c4x = a04x ^ a09x ^ a14x ^ a19x ^ a24x;
+            long c4y = a04y ^ a09y ^ a14y ^ a19y ^ a24y;
+
+            long d1x = (c1x << 1 | c1x >>> 63) ^ c4x;
+            long d1y = (c1y << 1 | c1y >>> 63) ^ c4y;
+            long d2x = (c2x << 1 | c2x >>> 63) ^ c0x;
+            long d2y = (c2y << 1 | c2y >>> 63) ^ c0y;
+            long d3x = (c3x << 1 | c3x >>> 63) ^ c1x;
+            long d3y = (c3y << 1 | c3y >>> 63) ^ c1y;
+            long d4x = (c4x << 1 | c4x >>> 63) ^ c2x;
+            long d4y = (c4y << 1 | c4y >>> 63) ^ c2y;
+            long d0x = (c0x << 1 | c0x >>> 63) ^ c3x;
+            long d0y = (c0y << 1 | c0y >>> 63) ^ c3y;
+
+            a00x ^= d1x; a05x ^= d1x; a10x ^= d1x; a15x ^= d1x; a20x ^= d1x;
+            a00y ^= d1y; a05y ^= d1y; a10y ^= d1y; a15y ^= d1y; a20y ^= d1y;
+            a01x ^= d2x; a06x ^= d2x; a11x ^= d2x; a16x ^= d2x; a21x ^= d2x;
+            a01y ^= d2y; a06y ^= d2y; a11y ^= d2y; a16y ^= d2y; a21y ^= d2y;
+            a02x ^= d3x; a07x ^= d3x; a12x ^= d3x; a17x ^= d3x; a22x ^= d3x;
+            a02y ^= d3y; a07y ^= d3y; a12y ^= d3y; a17y ^= d3y; a22y ^= d3y;
+            a03x ^= d4x; a08x ^= d4x; a13x ^= d4x; a18x ^= d4x; a23x ^= d4x;
+            a03y ^= d4y; a08y ^= d4y; a13y ^= d4y; a18y ^= d4y; a23y ^= d4y;
+            a04x ^= d0x; a09x ^= d0x; a14x ^= d0x; a19x ^= d0x; a24x ^= d0x;
+            a04y ^= d0y; a09y ^= d0y; a14y ^= d0y; a19y ^= d0y; a24y ^= d0y;
+
+            //rho and pi
+            c1x  = a01x <<  1 | a01x >>> 63;
+            c1y  = a01y <<  1 | a01y >>> 63;
+            a01x = a06x << 44 | a06x >>> 20;
+            a01y = a06y << 44 | a06y >>> 20;
+            a06x = a09x << 20 | a09x >>> 44;
+            a06y = a09y << 20 | a09y >>> 44;
+            a09x = a22x << 61 | a22x >>>  3;
+            a09y = a22y << 61 | a22y >>>  3;
+            a22x = a14x << 39 | a14x >>> 25;
+            a22y = a14y << 39 | a14y >>> 25;
+            a14x = a20x << 18 | a20x >>> 46;
+            a14y = a20y << 18 | a20y >>> 46;
+            a20x = a02x << 62 | a02x >>>  2;
+            a20y = a02y << 62 | a02y >>>  2;
+            a02x = a12x << 43 | a12x >>> 21;
+            a02y = a12y << 43 | a12y >>> 21;
+            a12x = a13x << 25 | a13x >>> 39;
+            a12y = a13y << 25 | a13y >>> 39;
+            a13x = a19x <<  8 | a19x >>> 56;
+            a13y = a19y <<  8 | a19y >>> 56;
+            a19x = a23x << 56 | a23x >>>  8;
+            a19y = a23y << 56 | a23y >>>  8;
+            a23x = a15x << 41 | a15x >>> 23;
+            a23y = a15y << 41 | a15y >>> 23;
+            a15x = a04x << 27 | a04x >>> 37;
+            a15y = a04y << 27 | a04y >>> 37;
+            a04x = a24x << 14 | a24x >>> 50;
+            a04y = a24y << 14 | a24y >>> 50;
+            a24x = a21x <<  2 | a21x >>> 62;
+            a24y = a21y <<  2 | a21y >>> 62;
+            a21x = a08x << 55 | a08x >>>  9;
+            a21y = a08y << 55 | a08y >>>  9;
+            a08x = a16x << 45 | a16x >>> 19;
+            a08y = a16y << 45 | a16y >>> 19;
+            a16x = a05x << 36 | a05x >>> 28;
+            a16y = a05y << 36 | a05y >>> 28;
+            a05x = a03x << 28 | a03x >>> 36;
+            a05y = a03y << 28 | a03y >>> 36;
+            a03x = a18x << 21 | a18x >>> 43;
+            a03y = a18y << 21 | a18y >>> 43;
+            a18x = a17x << 15 | a17x >>> 49;
+            a18y = a17y << 15 | a17y >>> 49;
+            a17x = a11x << 10 | a11x >>> 54;
+            a17y = a11y << 10 | a11y >>> 54;
+            a11x = a07x <<  6 | a07x >>> 58;
+            a11y = a07y <<  6 | a07y >>> 58;
+            a07x = a10x <<  3 | a10x >>> 61;
+            a07y = a10y <<  3 | a10y >>> 61;
+            a10x = c1x;
+            a10y = c1y;
+
+            //chi, one plane at a time
+            c0x = a00x ^ (~a01x & a02x);
+            c0y = a00y ^ (~a01y & a02y);
+            c1x = a01x ^ (~a02x & a03x);
+            c1y = a01y ^ (~a02y & a03y);
+            a02x ^= ~a03x & a04x;
+            a02y ^= ~a03y & a04y;
+            a03x ^= ~a04x & a00x;
+            a03y ^= ~a04y & a00y;
+            a04x ^= ~a00x & a01x;
+            a04y ^= ~a00y & a01y;
+            a00x = c0x; a01x = c1x;
+            a00y = c0y; a01y = c1y;
+
+            c0x = a05x ^ (~a06x & a07x);
+            c0y = a05y ^ (~a06y & a07y);
+            c1x = a06x ^ (~a07x & a08x);
+            c1y = a06y ^ (~a07y & a08y);
+            a07x ^= ~a08x & a09x;
+            a07y ^= ~a08y & a09y;
+            a08x ^= ~a09x & a05x;
+            a08y ^= ~a09y & a05y;
+            a09x ^= ~a05x & a06x;
+            a09y ^= ~a05y & a06y;
+            a05x = c0x; a06x = c1x;
+            a05y = c0y; a06y = c1y;
+
+            c0x = a10x ^ (~a11x & a12x);
+            c0y = a10y ^ (~a11y & a12y);
+            c1x = a11x ^ (~a12x & a13x);
+            c1y = a11y ^ (~a12y & a13y);
+            a12x ^= ~a13x & a14x;
+            a12y ^= ~a13y & a14y;
+            a13x ^= ~a14x & a10x;
+            a13y ^= ~a14y & a10y;
+            a14x ^= ~a10x & a11x;
+            a14y ^= ~a10y & a11y;
+            a10x = c0x; a11x = c1x;
+            a10y = c0y; a11y = c1y;
+
+            c0x = a15x ^ (~a16x & a17x);
+            c0y = a15y ^ (~a16y & a17y);
+            c1x = a16x ^ (~a17x & a18x);
+            c1y = a16y ^ (~a17y & a18y);
+            a17x ^= ~a18x & a19x;
+            a17y ^= ~a18y & a19y;
+            a18x ^= ~a19x & a15x;
+            a18y ^= ~a19y & a15y;
+            a19x ^= ~a15x & a16x;
+            a19y ^= ~a15y & a16y;
+            a15x = c0x; a16x = c1x;
+            a15y = c0y; a16y = c1y;
+
+            c0x = a20x ^ (~a21x & a22x);
+            c0y = a20y ^ (~a21y & a22y);
+            c1x = a21x ^ (~a22x & a23x);
+            c1y = a21y ^ (~a22y & a23y);
+            a22x ^= ~a23x & a24x;
+            a22y ^= ~a23y & a24y;
+            a23x ^= ~a24x & a20x;
+            a23y ^= ~a24y & a20y;
+            a24x ^= ~a20x & a21x;
+            a24y ^= ~a20y & a21y;
+            a20x = c0x; a21x = c1x;
+            a20y = c0y; a21y = c1y;
+
+            //iota
+            a00x ^= RC[i];
+            a00y ^= RC[i];
+        }
+
+        a[k] = a00x; a[n + k] = a01x; a[2*n + k] = a02x; a[3*n + k] = a03x; a[4*n + k] = a04x;
+        a[5*n + k] = a05x; a[6*n + k] = a06x; a[7*n + k] = a07x; a[8*n + k] = a08x; a[9*n + k] = a09x;
+        a[10*n + k] = a10x; a[11*n + k] = a11x; a[12*n + k] = a12x; a[13*n + k] = a13x; a[14*n + k] = a14x;
+        a[15*n + k] = a15x; a[16*n + k] = a16x; a[17*n + k] = a17x; a[18*n + k] = a18x; a[19*n + k] = a19x;
+        a[20*n + k] = a20x; a[21*n + k] = a21x; a[22*n + k] = a22x; a[23*n + k] = a23x; a[24*n + k] = a24x;
+        a[j] = a00y; a[n + j] = a01y; a[2*n + j] = a02y; a[3*n + j] = a03y; a[4*n + j] = a04y;
+        a[5*n + j] = a05y; a[6*n + j] = a06y; a[7*n + j] = a07y; a[8*n + j] = a08y; a[9*n + j] = a09y;
+        a[10*n + j] = a10y; a[11*n + j] = a11y; a[12*n + j] = a12y; a[13*n + j] = a13y; a[14*n + j] = a14y;
+        a[15*n + j] = a15y; a[16*n + j] = a16y; a[17*n + j] = a17y; a[18*n + j] = a18y; a[19*n + j] = a19y;
+        a[20*n + j] = a20y; a[21*n + j] = a21y; a[22*n + j] = a22y; a[23*n + j] = a23y; a[24*n + j] = a24y;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+    *An implementation of the Keccak-f[1600] permutation.
+    *Keccak.backend() picks one at startup: ScalarKeccakBackend everywhere, VectorKeccakBackend when the
+    *jdk.incubator.vector module is present and the CPU has vectors of eight longs.
+    *Several states are passed interleaved lane by lane, lane i of state k is a[i*n + k], which is the
+    *layout a vector backend can load one lane of every state from in a single instruction.
+*/
+
+public interface KeccakBackend {
+
+    //short name, as accepted by the keccak.backend system property
+    String name();
+
+    //number of states permuteStates handles best in one call
+    int preferredStates();
+
+    //permutes one 25 lane state in place with the last `rounds` rounds, as Keccak.permute
+    void permute(long[] a, int rounds);
+
+    //permutes n interleaved states in place with the last `rounds` rounds
+    void permuteStates(long[] a, int n, int rounds);
+}
@@ -0,0 +1,339 @@
+/*
+    *Keccak[c] sponge over a single reusable 25 lane state.
+    *Bytes are XORed into the state as they arrive and the permutation runs whenever a block
+    *fills up, so the memory used does not depend on how much input is absorbed.
+    *After pad() the sponge switches to squeezing and output is read straight out of the lanes.
+*/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
+
+public class KeccakSponge {
+    private static final KeccakBackend BACKEND = Keccak.backend();
+    // little endian long view of a byte[], one (unaligned) 8 byte load or store per lane
+    private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    // permutations are handed to CryptoMetrics in batches of this many, and whenever output is read
+    private static final int METRICS_BATCH = 64;
+
+    private final long[] state = new long[25];
+    private final int rate; // in bytes
+    private final int rounds;
+    private int pos; // byte position inside the current block
+    private boolean squeezing;
+    private int permutations; // run since the last flush to CryptoMetrics
+
+    /*
+        sponge with a rate of rateBytes bytes, using the full 24 round permutation
+    */
+    public KeccakSponge(int rateBytes) {
+        this(rateBytes, Keccak.ROUNDS);
+    }
+
+    public KeccakSponge(int rateBytes, int rounds) {
+        if (rateBytes <= 0 || rateBytes >= 200 || rateBytes % 8 != 0) {
+            throw new IllegalArgumentException("Rate must be a positive multiple of 8 bytes below 200.");
+        }
+        this.rate = rateBytes;
+        this.rounds = rounds;
+    }
+
+    //independent copy of this sponge, absorbing or squeezing from the same point
+    public KeccakSponge copy() {
+        KeccakSponge c = new KeccakSponge(rate, rounds);
+        System.arraycopy(state, 0, c.state, 0, 25);
+        c.pos = pos;
+        c.squeezing = squeezing;
+        return c;
+    }
+
+    //makes this sponge an exact copy of other, without allocating
+    public void copyFrom(KeccakSponge other) {
+        if (other.rate != rate || other.rounds != rounds) throw new IllegalArgumentException("Sponge parameters differ.");
+        System.arraycopy(other.state, 0, state, 0, 25);
+        pos = other.pos;
+        squeezing = other.squeezing;
+    }
+
+    public int rate() {
+        return rate;
+    }
+
+    //byte position inside the current block
+    public int position() {
+        return pos;
+    }
+
+    public boolean isSqueezing() {
+        return squeezing;
+    }
+
+    //copy of the 25 lanes, for code that runs several sponges in lockstep
+    long[] lanes() {
+        return state.clone();
+    }
+
+    //lanes (little endian) and block position of an absorbing sponge, 201 bytes, for checkpoints
+    void writeState(ByteBuffer out) {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        ByteOrder order = out.order();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        for (long lane : state) out.putLong(lane);
+        out.put((byte) pos).order(order);
+    }
+
+    //restores what writeState wrote, leaving the sponge absorbing
+    void readState(ByteBuffer in) {
+        ByteOrder order = in.order();
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        long[] lanes = new long[25];
+        for (int i = 0; i < 25; i++) lanes[i] = in.getLong();
+        int p = in.get() & 0xff;
+        in.order(order);
+        if (p >= rate) throw new IllegalArgumentException("Block position is outside the rate.");
+        System.arraycopy(lanes, 0, state, 0, 25);
+        Arrays.fill(lanes, 0L);
+        pos = p;
+        squeezing = false;
+    }
+
+    //sets the sponge back to the all zero absorbing state
+    public void reset() {
+        flushPermutations();
+        Arrays.fill(state, 0L);
+        pos = 0;
+        squeezing = false;
+    }
+
+    /*
+        absorb len bytes of in starting at off
+        whole lanes are XORed in at once once the position is lane aligned
+    */
+    public void absorb(byte[] in, int off, int len) {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        Objects.checkFromIndexSize(off, len, in.length);
+
+        while (len > 0 && (pos & 7) != 0) {
+            absorbByte(in[off++]);
+            len--;
+        }
+        while (len >= 8) {
+            state[pos >>> 3] ^= (long) LANE.get(in, off);
+            off += 8;
+            len -= 8;
+            pos += 8;
+            if (pos == rate) {
+                permute();
+            }
+        }
+        while (len > 0) {
+            absorbByte(in[off++]);
+            len--;
+        }
+    }
+
+    /*
+        absorb the remaining bytes of a heap, direct or mapped buffer without copying them out first
+        lanes are read with little endian getLong, the buffer ends up with its position at its limit
+    */
+    public void absorb(ByteBuffer in) {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        ByteBuffer le = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int p = in.position();
+        int lim = in.limit();
+
+        while (p < lim && (pos & 7) != 0) {
+            absorbByte(le.get(p++));
+        }
+        while (lim - p >= 8) {
+            state[pos >>> 3] ^= le.getLong(p);
+            p += 8;
+            pos += 8;
+            if (pos == rate) {
+                permute();
+            }
+        }
+        while (p < lim) {
+            absorbByte(le.get(p++));
+        }
+        in.position(lim);
+    }
+
+    public void absorb(int b) {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        absorbByte(b);
+    }
+
+    /*
+        zero fills the rest of the current block (the trailing zeros of bytepad)
+        nothing to do when the position is already on a block boundary
+    */
+    public void fillBlock() {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        if (pos != 0) {
+            permute();
+        }
+    }
+
+    /*
+        appends the domain separation suffix and the final bit of the pad10*1 rule,
+        then switches the sponge to squeezing
+    */
+    public void pad(int suffix) {
+        pad(suffix, true);
+    }
+
+    /*
+        same as pad(suffix) but lastBit = false leaves out the final 0x80 bit,
+        which is what FileHash.sponge did when the suffix byte closed a block
+    */
+    public void pad(int suffix, boolean lastBit) {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        state[pos >>> 3] ^= (long) (suffix & 0xff) << ((pos & 7) << 3);
+        if (lastBit) {
+            state[(rate - 1) >>> 3] ^= 0x80L << 56;
+        }
+        permute();
+        squeezing = true;
+        flushPermutations();
+    }
+
+    /*
+        squeeze len bytes into out starting at off
+        may be called any number of times, the output continues where the last call stopped
+    */
+    public void squeeze(byte[] out, int off, int len) {
+        squeeze(null, 0, out, off, len);
+    }
+
+    /*
+        XORs the next len output bytes into buf starting at off, in place
+        this is the keystream step of the cryptogram code without a separate keystream buffer
+    */
+    public void squeezeXor(byte[] buf, int off, int len) {
+        squeeze(buf, off, buf, off, len);
+    }
+
+    /*
+        out[outOff + i] = in[inOff + i] XOR the next len output bytes
+        encrypts or decrypts straight from one array into another, without copying first
+        the two ranges must either be the same or not overlap
+    */
+    public void squeezeXor(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        Objects.checkFromIndexSize(inOff, len, in.length);
+        squeeze(in, inOff, out, outOff, len);
+    }
+
+    //squeeze into the remaining space of a heap or direct buffer, the position ends at the limit
+    public void squeeze(ByteBuffer out) {
+        squeeze(out, false);
+    }
+
+    //XORs the next output bytes into the remaining bytes of the buffer, in place
+    public void squeezeXor(ByteBuffer buf) {
+        squeeze(buf, true);
+    }
+
+    //squeezes into out, XORed with the bytes of in from inOff on unless in is null
+    private void squeeze(byte[] in, int inOff, byte[] out, int off, int len) {
+        if (!squeezing) throw new IllegalStateException("Sponge must be padded before squeezing.");
+        Objects.checkFromIndexSize(off, len, out.length);
+        boolean xor = in != null;
+        int d = inOff - off; // in index = out index + d
+
+        while (len > 0) {
+            if (pos == rate) {
+                permute();
+            }
+            int n = Math.min(len, rate - pos);
+            int end = off + n;
+            // up to the next lane boundary byte by byte, then whole lanes, then the tail
+            while (off < end && (pos & 7) != 0) {
+                out[off] = squeezeByte(xor ? in[off + d] : 0, xor);
+                off++;
+            }
+            while (end - off >= 8) {
+                long w = state[pos >>> 3];
+                LANE.set(out, off, xor ? (long) LANE.get(in, off + d) ^ w : w);
+                off += 8;
+                pos += 8;
+            }
+            while (off < end) {
+                out[off] = squeezeByte(xor ? in[off + d] : 0, xor);
+                off++;
+            }
+            len -= n;
+        }
+        flushPermutations();
+    }
+
+    private void squeeze(ByteBuffer out, boolean xor) {
+        if (!squeezing) throw new IllegalStateException("Sponge must be padded before squeezing.");
+        ByteBuffer le = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int p = out.position();
+        int lim = out.limit();
+
+        while (p < lim) {
+            if (pos == rate) {
+                permute();
+            }
+            if ((pos & 7) == 0 && lim - p >= 8) {
+                long w = state[pos >>> 3];
+                le.putLong(p, xor ? le.getLong(p) ^ w : w);
+                p += 8;
+                pos += 8;
+            } else {
+                le.put(p, squeezeByte(le.get(p), xor));
+                p++;
+            }
+        }
+        out.position(lim);
+        flushPermutations();
+    }
+
+    //next output byte, XORed onto b when xor is set
+    private byte squeezeByte(byte b, boolean xor) {
+        byte s = (byte) (state[pos >>> 3] >>> ((pos & 7) << 3));
+        pos++;
+        return xor ? (byte) (b ^ s) : s;
+    }
+
+    /*
+        XORs one little endian lane into the state, the position must be lane aligned
+        for absorbers of other input types, see SegmentInput
+    */
+    void absorbLane(long w) {
+        if (squeezing) throw new IllegalStateException("Sponge is already squeezing.");
+        if ((pos & 7) != 0) throw new IllegalStateException("Position is not lane aligned.");
+        state[pos >>> 3] ^= w;
+        pos += 8;
+        if (pos == rate) {
+            permute();
+        }
+    }
+
+    private void permute() {
+        BACKEND.permute(state, rounds);
+        pos = 0;
+        if (++permutations == METRICS_BATCH) flushPermutations();
+    }
+
+    private void flushPermutations() {
+        if (permutations != 0) {
+            CryptoMetrics.permutations(permutations);
+            permutations = 0;
+        }
+    }
+
+    private void absorbByte(int b) {
+        state[pos >>> 3] ^= (long) (b & 0xff) << ((pos & 7) << 3);
+        if (++pos == rate) {
+            permute();
+        }
+    }
+
+}
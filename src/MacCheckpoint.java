@@ -0,0 +1,191 @@
+/*
+    *Encrypted checkpoints of a KMACXOF256 (or cSHAKE256 / SHAKE256) computation part way through,
+    *so the tag of a file that only ever grows, such as an audit log, can be brought up to date by
+    *absorbing just the bytes appended since the last checkpoint instead of the whole file.
+    *
+    *A checkpoint holds the sponge state after the key and customization headers and the first
+    *`absorbed` message bytes. That state is as sensitive as the key, so it is stored encrypted and
+    *authenticated under the MAC key itself, in the same shape as the cryptograms of Main:
+    *
+    *   checkpoint = "KMCP" || version (1 byte) || z (64) || c || t (64)
+    *   (ke || ka) = KMACXOF256(key, z, 1024, "CKP")
+    *   m          = customization length (2) || customization || absorbed (8) || context state (202)
+    *   c          = KMACXOF256(ke, "", 8|m|, "CKE") XOR m
+    *   t          = KMACXOF256(ka, "KMCP" || version || z || m, 512, "CKA")
+    *
+    *Resuming trusts that the first `absorbed` bytes of the file are unchanged since the checkpoint:
+    *it is meant for append-only files, a rewrite inside that prefix is not noticed.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+
+public final class MacCheckpoint {
+    static final byte VERSION = 1;
+    private static final byte[] MAGIC = {'K', 'M', 'C', 'P'};
+    private static final int HEADER_BYTES = 5;
+    private static final int Z_BYTES = 64;
+    private static final int TAG_BYTES = 64;
+    private static final int STATE_BYTES = 202;
+    private static final int WINDOW_BYTES = 1 << 26; // appended bytes mapped at a time
+    private static final byte[] KEYS = "CKP".getBytes();
+    private static final byte[] STREAM = "CKE".getBytes();
+    private static final byte[] AUTH = "CKA".getBytes();
+
+    private final HashContext context;
+    private final long absorbed;
+
+    private MacCheckpoint(HashContext context, long absorbed) {
+        this.context = context;
+        this.absorbed = absorbed;
+    }
+
+    //context as it was when the checkpoint was taken, ready for update() with the bytes after absorbed()
+    public HashContext context() {
+        return context;
+    }
+
+    //message bytes the context had absorbed
+    public long absorbed() {
+        return absorbed;
+    }
+
+    /*
+        checkpoint of ctx, which has absorbed `absorbed` message bytes under customization and has
+        not been squeezed, encrypted under key. ctx itself is left as it is
+    */
+    public static byte[] save(HashContext ctx, byte[] customization, long absorbed, byte[] key) {
+        if (absorbed < 0) throw new IllegalArgumentException("Absorbed length must not be negative.");
+        if (customization.length > 0xffff) throw new IllegalArgumentException("Customization is too long.");
+        ByteBuffer m = ByteBuffer.allocate(2 + customization.length + 8 + STATE_BYTES);
+        m.putShort((short) customization.length).put(customization).putLong(absorbed);
+        ctx.writeState(m);
+        byte[] plain = m.array();
+
+        byte[] z = new byte[Z_BYTES];
+        CShakeDrbg.current().nextBytes(z);
+        byte[] header = header(z);
+        byte[][] keys = keys(key, z);
+        byte[] out = new byte[header.length + plain.length + TAG_BYTES];
+        System.arraycopy(header, 0, out, 0, header.length);
+        byte[] t = FileHash.KMACXOF256(keys[1], FileHash.concat(header, plain), TAG_BYTES * 8, AUTH);
+        HashContext stream = new HashContext();
+        stream.init(keys[0], STREAM);
+        stream.squeezeXor(plain, 0, out, header.length, plain.length);
+        System.arraycopy(t, 0, out, header.length + plain.length, TAG_BYTES);
+        stream.destroy();
+        wipe(plain, keys);
+        return out;
+    }
+
+    /*
+        decrypts and checks a checkpoint made under key for the given customization
+        fails with IllegalArgumentException when it is not one, its tag does not verify or it was
+        taken under another customization
+    */
+    public static MacCheckpoint load(byte[] checkpoint, byte[] key, byte[] customization) {
+        int headerLength = HEADER_BYTES + Z_BYTES;
+        if (checkpoint.length < headerLength + 2 + 8 + STATE_BYTES + TAG_BYTES
+                || !Arrays.equals(Arrays.copyOf(checkpoint, MAGIC.length), MAGIC)) {
+            throw new IllegalArgumentException("Not a MAC checkpoint.");
+        }
+        if (checkpoint[MAGIC.length] != VERSION) throw new IllegalArgumentException("Unsupported checkpoint version.");
+        byte[] header = Arrays.copyOf(checkpoint, headerLength);
+        byte[] z = Arrays.copyOfRange(checkpoint, HEADER_BYTES, headerLength);
+        byte[][] keys = keys(key, z);
+        byte[] plain = new byte[checkpoint.length - headerLength - TAG_BYTES];
+        HashContext stream = new HashContext();
+        stream.init(keys[0], STREAM);
+        stream.squeezeXor(checkpoint, headerLength, plain, 0, plain.length);
+        stream.destroy();
+        try {
+            byte[] t = FileHash.KMACXOF256(keys[1], FileHash.concat(header, plain), TAG_BYTES * 8, AUTH);
+            if (!MessageDigest.isEqual(t, Arrays.copyOfRange(checkpoint, checkpoint.length - TAG_BYTES, checkpoint.length))) {
+                throw new IllegalArgumentException("Checkpoint tag didn't match.");
+            }
+            ByteBuffer m = ByteBuffer.wrap(plain);
+            int n = m.getShort() & 0xffff;
+            if (n != plain.length - 2 - 8 - STATE_BYTES
+                    || !Arrays.equals(plain, 2, 2 + n, customization, 0, customization.length)) {
+                throw new IllegalArgumentException("Checkpoint was taken under another customization.");
+            }
+            m.position(2 + n);
+            long absorbed = m.getLong();
+            HashContext ctx = new HashContext();
+            ctx.readState(m);
+            return new MacCheckpoint(ctx, absorbed);
+        } finally {
+            wipe(plain, keys);
+        }
+    }
+
+    /*
+        KMACXOF256(key, contents of log, bitLength, customization), equal to FileHash.KMACXOF256 over
+        the whole file, resuming from the checkpoint file when there is one and saving a new one
+        only the bytes appended since the checkpoint are read. A log shorter than its checkpoint
+        (truncated or rotated) is tagged from the start again
+    */
+    public static byte[] tagLog(Path log, Path checkpoint, byte[] key, byte[] customization, int bitLength) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            long size = ch.size();
+            HashContext ctx = null;
+            long from = 0;
+            if (Files.exists(checkpoint)) {
+                MacCheckpoint cp = load(Files.readAllBytes(checkpoint), key, customization);
+                if (cp.absorbed <= size) {
+                    ctx = cp.context;
+                    from = cp.absorbed;
+                }
+            }
+            if (ctx == null) {
+                ctx = new HashContext();
+                ctx.init(key, customization);
+            }
+            for (long off = from; off < size; off += WINDOW_BYTES) {
+                ctx.update(ch.map(FileChannel.MapMode.READ_ONLY, off, Math.min(WINDOW_BYTES, size - off)));
+            }
+            write(checkpoint, save(ctx, customization, size, key));
+            byte[] tag = ctx.squeeze(bitLength);
+            ctx.destroy();
+            CryptoMetrics.record(CryptoMetrics.Op.KMACXOF256, customization, size - from, start, false);
+            return tag;
+        }
+    }
+
+    //replaces the checkpoint file through a temporary file, so a crash leaves the old or the new one
+    private static void write(Path checkpoint, byte[] bytes) throws IOException {
+        Path tmp = Files.createTempFile(checkpoint.toAbsolutePath().getParent(), checkpoint.getFileName().toString(), ".part");
+        try {
+            Files.write(tmp, bytes);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        FileCryptor.moveIntoPlace(tmp, checkpoint);
+    }
+
+    private static byte[] header(byte[] z) {
+        return ByteBuffer.allocate(HEADER_BYTES + Z_BYTES).put(MAGIC).put(VERSION).put(z).array();
+    }
+
+    //{ke, ka}
+    private static byte[][] keys(byte[] key, byte[] z) {
+        byte[] keka = FileHash.KMACXOF256(key, z, 1024, KEYS);
+        byte[][] keys = {Arrays.copyOf(keka, 64), Arrays.copyOfRange(keka, 64, 128)};
+        Arrays.fill(keka, (byte) 0);
+        return keys;
+    }
+
+    private static void wipe(byte[] plain, byte[][] keys) {
+        Arrays.fill(plain, (byte) 0);
+        for (byte[] k : keys) Arrays.fill(k, (byte) 0);
+    }
+}
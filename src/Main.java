@@ -8,7 +8,7 @@ import java.io.*;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.security.SecureRandom;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Scanner;
 
@@ -19,29 +19,36 @@ public class Main {
         drives all the methods inside this class and the FileHash class
     */
     public static void main(String[] args) {
+        // with arguments the app runs non-interactively, see BatchCli
+        if (args.length > 0) {
+            switch (args[0]) {
+                case "daemon":
+                    System.exit(CryptoDaemon.run(args));
+                    return;
+                case "client":
+                    System.exit(DaemonClient.run(args));
+                    return;
+                default:
+                    System.exit(BatchCli.run(args));
+                    return;
+            }
+        }
         // scanner class to get user input
         Scanner userInput = new Scanner(System.in);
         int categoryResponse = selectCategoryPrompt(userInput);
 
-        switch (categoryResponse) {
-            case 1:
-                //proceed to KMAC service selection if userinput is 2 
-                do {
-                    selectService(userInput);
-                } while (repeat(userInput));
-                userInput.close();
-            case 2:
-                //exit the app if the user input is 2
-                System.out.println("====================== Exiting App ==========================");
+        if (categoryResponse == 1) {
+            //proceed to KMAC service selection if userinput is 1
+            do {
+                selectService(userInput);
+            } while (repeat(userInput));
+            userInput.close();
         }
+        //exit the app once the services are done, or straight away if the user input is 2
+        System.out.println("====================== Exiting App ==========================");
 
     }
     
-    /* Secure random variable 
-        generates secure random variable Z 
-    */
-    private static SecureRandom z = new SecureRandom();
-    
     /* 
         initializing the class FileHash to create an object 
     */
@@ -63,8 +70,8 @@ public class Main {
     
     //prompt for    KMAC  selections and input
     private static void selectService(final Scanner userInput) {
-        String menu = "Please enter the corresponding number of the service you would like to use:\n" + "    1) Compute a plain cryptographic hash\n" + "    2) Compute an authentication tag (MAC)\n" + "    3) Encrypt a given data file\n" + "    4) Decrypt a given symmetric cryptogram\n";
-        int response = getIntInRange(userInput, menu, 1, 4);
+        String menu = "Please enter the corresponding number of the service you would like to use:\n" + "    1) Compute a plain cryptographic hash\n" + "    2) Compute an authentication tag (MAC)\n" + "    3) Encrypt a given data file\n" + "    4) Decrypt a given symmetric cryptogram\n" + "    5) Encrypt a data file into a cryptogram file\n" + "    6) Decrypt a cryptogram file into a data file\n";
+        int response = getIntInRange(userInput, menu, 1, 6);
         switch (response) {
             case 1:
                 plainHashService(inputPrompt(userInput));
@@ -75,6 +82,12 @@ public class Main {
             case 3:
                 encryptionService();
                 break;
+            case 5:
+                encryptFileService();
+                break;
+            case 6:
+                decryptFileService();
+                break;
             default:
                 decryptService(decryptPreviousCryptogram(userInput));
                 break;
@@ -98,10 +111,12 @@ public class Main {
     
     //decrypting previous encryption
      private static String decryptPreviousCryptogram(Scanner userInput) {
-        String menu = "What format would you like your input:\n" + "    1) Most recently encrypted (requires use of encryption service first).\n" + "    2) User input cryptogram\n";
-        int input = getIntInRange(userInput, menu, 1, 2);
+        String menu = "What format would you like your input:\n" + "    1) Most recently encrypted (requires use of encryption service first).\n" + "    2) User input cryptogram\n" + "    3) Cryptogram file (hex, Base64 or raw binary)\n";
+        int input = getIntInRange(userInput, menu, 1, 3);
         if (input == 1) {
             return "prev encrypt";
+        } else if (input == 3) {
+            return "file";
         } else {
             return "user input";
         }
@@ -168,13 +183,25 @@ public class Main {
     private static void encryptionService() {
         Scanner userIn = new Scanner(System.in);
         File theFile = getInputFile(userIn);
-        String theFileContent = fileToString(theFile);
         String thePassphrase;
-        byte[] byteArray = theFileContent.getBytes();
+        byte[] byteArray = fileToBytes(theFile);
         System.out.println("Please enter a passphrase: ");
         thePassphrase = userIn.nextLine();
         previousEncrypt = encryptKMAC(byteArray, thePassphrase);
-        System.out.println(FileHash.bytesToHexString(previousEncrypt));
+
+        String menu = "How would you like the cryptogram:\n" + "    1) Printed in hex\n" + "    2) Written to a file\n";
+        if (getIntInRange(userIn, menu, 1, 2) == 1) {
+            System.out.println(FileHash.bytesToHexString(previousEncrypt));
+            return;
+        }
+        userIn.nextLine();
+        File outFile = getOutputFile(userIn);
+        try {
+            TextCodec.write(outFile.toPath(), previousEncrypt, textFormatPrompt(userIn));
+            System.out.println("Cryptogram written to " + outFile.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
     
     //decryprion  method to decrypt encrypted text to plain text
@@ -187,59 +214,130 @@ public class Main {
         if (input.equals("prev encrypt")) { //input from file
             decryptedByteArray = decryptKMAC(previousEncrypt, thePassphrase);
         } else if (input.equals("user input")) { //input from command line
-            System.out.println("\nPlease input a cryptogram in hex string format in one line (spaces okay, NO NEW LINES!!!!!): \n");
-            String userString = userIn.nextLine();
-            byte[] hexBytes = FileHash.hexStringToBytes(userString);
+            System.out.println("\nPlease input a cryptogram in hex string format, it may span several lines, end it with an empty line: \n");
+            StringBuilder hex = new StringBuilder();
+            String line;
+            while (userIn.hasNextLine() && !(line = userIn.nextLine()).isBlank()) {
+                hex.append(line).append('\n');
+            }
+            byte[] hexBytes = FileHash.hexStringToBytes(hex.toString());
             decryptedByteArray = decryptKMAC(hexBytes, thePassphrase);
+        } else if (input.equals("file")) { //cryptogram file in any of the text formats or raw
+            File inFile = getInputFile(userIn);
+            try {
+                decryptedByteArray = decryptKMAC(TextCodec.read(inFile.toPath(), textFormatPrompt(userIn)), thePassphrase);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
         }
         System.out.println("\nDecryption in Hex format:\n" + FileHash.bytesToHexString(decryptedByteArray));
         System.out.println("\nThe Plain Text:\n" + new String (decryptedByteArray, StandardCharsets.UTF_8));
     }
     
+    /*
+        file to file encryption, the file is streamed so its size is not limited by memory
+        the cryptogram file has the same rand || c || t layout as encryptKMAC
+    */
+    private static void encryptFileService() {
+        Scanner userIn = new Scanner(System.in);
+        File theFile = getInputFile(userIn);
+        File outFile = getOutputFile(userIn);
+        boolean segmented = segmentedFormatPrompt(userIn);
+        System.out.println("Please enter a passphrase: ");
+        String thePassphrase = userIn.nextLine();
+        try {
+            if (segmented) {
+                SegmentedCryptor.encrypt(theFile.toPath(), outFile.toPath(), thePassphrase);
+            } else {
+                FileCryptor.encrypt(theFile.toPath(), outFile.toPath(), thePassphrase);
+            }
+            System.out.println("Cryptogram written to " + outFile.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    //file to file decryption of a cryptogram written by encryptFileService
+    private static void decryptFileService() {
+        Scanner userIn = new Scanner(System.in);
+        File theFile = getInputFile(userIn);
+        File outFile = getOutputFile(userIn);
+        boolean segmented = segmentedFormatPrompt(userIn);
+        System.out.println("Please enter a passphrase you used for encryption: ");
+        String thePassphrase = userIn.nextLine();
+        try {
+            if (segmented) {
+                SegmentedCryptor.decrypt(theFile.toPath(), outFile.toPath(), thePassphrase);
+            } else {
+                FileCryptor.decrypt(theFile.toPath(), outFile.toPath(), thePassphrase);
+            }
+            System.out.println("Decrypted file written to " + outFile.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /*
+        choosing between the original rand || c || t cryptogram and the segmented one,
+        which is processed on all cores
+    */
+    private static boolean segmentedFormatPrompt(Scanner userIn) {
+        String menu = "Which cryptogram format:\n" + "    1) Standard\n" + "    2) Segmented (parallel, for large files)\n";
+        int input = getIntInRange(userIn, menu, 1, 2);
+        userIn.nextLine();
+        return input == 2;
+    }
+    
+    //format of a cryptogram file, raw binary skips text encoding altogether
+    private static TextCodec.Format textFormatPrompt(Scanner userIn) {
+        String menu = "Which format is the cryptogram file:\n" + "    1) Hex text\n" + "    2) Base64 text\n" + "    3) Raw binary\n";
+        int input = getIntInRange(userIn, menu, 1, 3);
+        userIn.nextLine();
+        return input == 1 ? TextCodec.Format.HEX : input == 2 ? TextCodec.Format.BASE64 : TextCodec.Format.RAW;
+    }
+    
     //symetric encryption using KMAC
-    private static byte[] encryptKMAC(byte[] m, String pw) {
+    static byte[] encryptKMAC(byte[] m, String pw) {
+        long start = System.nanoTime();
         byte[] rand = new byte[64];
-        z.nextBytes(rand);
+        CShakeDrbg.current().nextBytes(rand); // per-thread generator, no shared lock
 
         //squeeze bits from sponge
-        byte[] keka = FileHash.KMACXOF256(FileHash.concat(rand, pw.getBytes()), "".getBytes(), 1024, "S".getBytes());
-        byte[] ke = new byte[64];
-        System.arraycopy(keka,0,ke,0,64);
-        byte[] ka = new byte[64];
-        System.arraycopy(keka, 64,ka,0,64);
-        
-        byte[] c = FileHash.KMACXOF256(ke, "".getBytes(), (m.length * 8), "SKE".getBytes());
-        c =  FileHash.xorBytes(c, m);
-        byte[] t = FileHash.KMACXOF256(ka, m, 512, "SKA".getBytes());
+        HashContext[] ctx = FileCryptor.keyContexts(rand, pw);
+
+        // cryptogram = rand || c || t, c and the tag are computed together in one pass over m
+        byte[] cryptogram = new byte[64 + m.length + 64];
+        System.arraycopy(rand, 0, cryptogram, 0, 64);
+        FileCryptor.crypt(ctx[0], ctx[1], m, 0, cryptogram, 64, m.length, true);
+        ctx[1].squeeze(cryptogram, 64 + m.length, 64);
 
-        return FileHash.concat(FileHash.concat(rand, c), t);
+        CryptoMetrics.record(CryptoMetrics.Op.ENCRYPT, null, m.length, start, false);
+        return cryptogram;
     }
     
     //symetric cryptogram decryption functionality
-    private static byte[] decryptKMAC(byte[] cryptogram, String pw) {
+    static byte[] decryptKMAC(byte[] cryptogram, String pw) {
+        long start = System.nanoTime();
+        if (cryptogram.length < 128) throw new IllegalArgumentException("Cryptogram is too short.");
         byte[] rand = new byte[64];
         //get 512-bit random number from the beginning of cryptogram
         System.arraycopy(cryptogram, 0, rand, 0, 64);
 
-        //retrieving the encrypted message of the previous encryption
-        byte[] in = Arrays.copyOfRange(cryptogram, 64, cryptogram.length - 64);
+        //the encrypted message is decrypted into m below
+        byte[] m = new byte[cryptogram.length - 128];
 
         //get tag  appended to cryptogram
         byte[] tag = Arrays.copyOfRange(cryptogram, cryptogram.length - 64, cryptogram.length);
 
         //sponge squeezing of bits
-        byte[] keka = FileHash.KMACXOF256(FileHash.concat(rand, pw.getBytes()), "".getBytes(), 1024, "S".getBytes());
-        byte[] ke = new byte[64];
-        System.arraycopy(keka,0,ke,0,64);
-        byte[] ka = new byte[64];
-        System.arraycopy(keka, 64,ka,0,64);
+        HashContext[] ctx = FileCryptor.keyContexts(rand, pw);
+        FileCryptor.crypt(ctx[0], ctx[1], cryptogram, 64, m, 0, m.length, false);
+        byte[] tPrime = ctx[1].squeeze(512);
 
-        byte[] m = FileHash.KMACXOF256(ke, "".getBytes(), (in.length*  8), "SKE".getBytes());
-        m = FileHash.xorBytes(m, in);
-
-        byte[] tPrime = FileHash.KMACXOF256(ka, m, 512, "SKA".getBytes());
-
-        if (Arrays.equals(tag, tPrime)) {
+        boolean matched = MessageDigest.isEqual(tag, tPrime);
+        CryptoMetrics.record(CryptoMetrics.Op.DECRYPT, null, m.length, start, !matched);
+        if (matched) {
             return m;
         }
         else {
@@ -290,6 +388,22 @@ public class Main {
         return theFile;
     }
     
+    public static File getOutputFile(final Scanner userIn) {
+        System.out.println("Please enter the full path of the output file:");
+        return new File(userIn.nextLine());
+    }
+    
+    //reading the raw bytes of a file, no charset conversion
+    public static byte[] fileToBytes(final File theFile) {
+        byte[] theBytes = null;
+        try {
+            theBytes = Files.readAllBytes(theFile.getAbsoluteFile().toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return theBytes;
+    }
+    
     //converting file to string
     public static String fileToString(final File theFile) {
         String theString = null;
@@ -0,0 +1,447 @@
+/*
+    *Chunked Merkle tree over a file, built on cSHAKE256, for files that are edited in place and
+    *re-verified often: after a small edit only the chunks that changed are read and hashed again,
+    *and only their paths up to the root are recomputed.
+    *
+    *   leaf_i = cSHAKE256(chunk_i, 512, "Merkle", "L")
+    *   node   = cSHAKE256(left || right, 512, "Merkle", "N"), a node without a right sibling moves up as is
+    *   root   = cSHAKE256(top node || file size (8) || chunk size (4), 512, "Merkle", "R")
+    *
+    *An empty file has one empty chunk. The tree is kept next to the file as <file>.kmt:
+    *
+    *   tree   = "KMMT" || version (1 byte) || state (1) || chunk size (4) || size (8) || mtime in ns (8)
+    *            || inode (8) || leaves (4) || every level of nodes from the leaves up || root
+    *
+    *The size, mtime and inode are those the file had when it was last hashed, compared the same way
+    *as in DigestIndex. Changed nodes are written in place. state is cleared before such writes and set
+    *again after them, so a tree caught half way by a crash is recognised and rebuilt on the next refresh.
+    *Leaves are hashed on the common ForkJoinPool from memory-mapped chunks.
+*/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public final class MerkleTree {
+    static final byte VERSION = 1;
+    public static final int DEFAULT_CHUNK = 1 << 22;
+    private static final byte[] MAGIC = {'K', 'M', 'M', 'T'};
+    private static final int HEADER_BYTES = 38;
+    private static final int STATE_OFFSET = 5;
+    private static final int NODE_BYTES = 64;
+    private static final byte[] NAME = "Merkle".getBytes();
+    private static final byte[] LEAF = {'L'};
+    private static final byte[] NODE = {'N'};
+    private static final byte[] ROOT = {'R'};
+    private static final HashContext LEAF_CONTEXT = context(LEAF);
+    private static final HashContext NODE_CONTEXT = context(NODE);
+    private static final HashContext ROOT_CONTEXT = context(ROOT);
+
+    private final Path file;
+    private final Path treeFile;
+    private final int chunkSize;
+    private long[] stamp; // {size, mtime, inode} of the file when last hashed
+    private byte[][][] levels; // levels[0] are the leaves, the last level holds the single top node
+    private byte[] root;
+    private boolean consistent;
+
+    private MerkleTree(Path file, int chunkSize) {
+        this.file = file;
+        this.treeFile = file.resolveSibling(file.getFileName() + ".kmt");
+        this.chunkSize = chunkSize;
+    }
+
+    //opens the tree of file, with the chunk size it was saved with or DEFAULT_CHUNK for a new one
+    public static MerkleTree open(Path file) throws IOException {
+        return open(file, 0);
+    }
+
+    /*
+        opens the saved tree of file, or hashes the whole file and saves a new one when there is none
+        or the saved one uses another chunk size (0 takes whatever the saved one uses)
+        the saved tree is not checked against the file here, see refresh()
+    */
+    public static MerkleTree open(Path file, int chunkSize) throws IOException {
+        if (chunkSize < 0) throw new IllegalArgumentException("Chunk size must not be negative.");
+        MerkleTree saved = load(file);
+        if (saved != null && (chunkSize == 0 || saved.chunkSize == chunkSize)) return saved;
+        MerkleTree tree = new MerkleTree(file, chunkSize == 0 ? DEFAULT_CHUNK : chunkSize);
+        tree.rebuild();
+        return tree;
+    }
+
+    public synchronized byte[] root() {
+        return root.clone();
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized int chunks() {
+        return levels[0].length;
+    }
+
+    /*
+        brings the tree up to date after the caller changed the bytes in [offset, offset + length)
+        and nothing else: only the chunks overlapping that range are hashed again, plus the last
+        chunk when the file size changed. Returns the number of chunks hashed
+    */
+    public synchronized int update(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0) throw new IllegalArgumentException("Offset and length must not be negative.");
+        long[] now = DigestIndex.stampOf(file);
+        if (!consistent) return refreshAll(now);
+        long size = now[0];
+        int n = chunkCount(size);
+        BitSet dirty = new BitSet(n);
+        long end = Math.min(offset + length, size);
+        if (offset < end) dirty.set((int) (offset / chunkSize), (int) ((end - 1) / chunkSize) + 1);
+        if (size != stamp[0]) {
+            // the old last chunk may have grown or shrunk, and every chunk past it is new
+            dirty.set(Math.min(chunkCount(stamp[0]), n) - 1, n);
+        }
+        return apply(now, dirty);
+    }
+
+    /*
+        checks the file against the tree and brings the tree up to date
+        nothing is read while the file's size, mtime and inode are those last hashed, otherwise every
+        chunk is hashed again in parallel and only the paths of the leaves that differ are recomputed
+        returns the number of leaves that changed
+    */
+    public synchronized int refresh() throws IOException {
+        long[] now = DigestIndex.stampOf(file);
+        if (consistent && Arrays.equals(now, stamp)) return 0;
+        return refreshAll(now);
+    }
+
+    /*
+        hashes the chunks overlapping [offset, offset + length) and checks each against the root
+        through its stored path, without changing the tree
+        returns the indices of the chunks that do not match, or lie outside the tree
+    */
+    public synchronized int[] verify(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0) throw new IllegalArgumentException("Offset and length must not be negative.");
+        int n = levels[0].length;
+        long size = Files.size(file);
+        long end = Math.min(offset + length, size);
+        if (offset >= end) return new int[0];
+        int first = (int) (offset / chunkSize);
+        int last = (int) ((end - 1) / chunkSize);
+        int[] idx = new int[last - first + 1];
+        for (int i = 0; i < idx.length; i++) idx[i] = first + i;
+        byte[][] leaves = hashLeaves(idx, size);
+        List<Integer> bad = new ArrayList<>();
+        for (int k = 0; k < idx.length; k++) {
+            int i = idx[k];
+            if (i >= n || size != stamp[0] || !Arrays.equals(rootFrom(i, leaves[k]), root)) bad.add(i);
+        }
+        return bad.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    //root recomputed from a leaf and the stored siblings on its path
+    private byte[] rootFrom(int i, byte[] leaf) {
+        byte[] h = leaf;
+        for (int l = 0; l < levels.length - 1; l++, i >>= 1) {
+            byte[][] level = levels[l];
+            if ((i & 1) == 1) h = node(level[i - 1], h);
+            else if (i + 1 < level.length) h = node(h, level[i + 1]);
+        }
+        return rootOf(h, stamp[0]);
+    }
+
+    //hashes every chunk and keeps the tree's shape when the leaf count is unchanged
+    private int refreshAll(long[] now) throws IOException {
+        int n = chunkCount(now[0]);
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        byte[][] leaves = hashLeaves(idx, now[0]);
+        if (!consistent || n != levels[0].length) {
+            int changed = 0;
+            for (int i = 0; i < n; i++) {
+                if (i >= levels[0].length || !Arrays.equals(leaves[i], levels[0][i])) changed++;
+            }
+            build(leaves, now);
+            save();
+            return changed;
+        }
+        BitSet dirty = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            if (!Arrays.equals(leaves[i], levels[0][i])) {
+                levels[0][i] = leaves[i];
+                dirty.set(i);
+            }
+        }
+        updatePaths(now, dirty);
+        return dirty.cardinality();
+    }
+
+    //hashes the dirty chunks and updates their paths, rebuilding the levels if the leaf count changed
+    private int apply(long[] now, BitSet dirty) throws IOException {
+        int[] idx = dirty.stream().toArray();
+        byte[][] leaves = hashLeaves(idx, now[0]);
+        int n = chunkCount(now[0]);
+        if (n != levels[0].length) {
+            byte[][] all = Arrays.copyOf(levels[0], n);
+            for (int k = 0; k < idx.length; k++) all[idx[k]] = leaves[k];
+            build(all, now);
+            save();
+        } else {
+            for (int k = 0; k < idx.length; k++) levels[0][idx[k]] = leaves[k];
+            updatePaths(now, dirty);
+        }
+        return idx.length;
+    }
+
+    /*
+        recomputes the parents of the dirty leaves level by level, k changed leaves cost O(k log n)
+        node hashes, and writes the changed nodes, the new stamp and the root in place
+    */
+    private void updatePaths(long[] now, BitSet dirty) throws IOException {
+        consistent = false; // until every write below has gone through
+        try (FileChannel ch = FileChannel.open(treeFile, StandardOpenOption.WRITE)) {
+            setState(ch, 0);
+            long levelOffset = HEADER_BYTES;
+            BitSet changed = dirty;
+            for (int l = 0; ; l++) {
+                byte[][] level = levels[l];
+                for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                    writeFully(ch, level[i], levelOffset + (long) i * NODE_BYTES);
+                }
+                levelOffset += (long) level.length * NODE_BYTES;
+                if (l == levels.length - 1) break;
+                byte[][] up = levels[l + 1];
+                BitSet parents = new BitSet(up.length);
+                for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                    int p = i >> 1;
+                    if (parents.get(p)) continue;
+                    parents.set(p);
+                    up[p] = 2 * p + 1 < level.length ? node(level[2 * p], level[2 * p + 1]) : level[2 * p];
+                }
+                changed = parents;
+            }
+            stamp = now;
+            root = rootOf(levels[levels.length - 1][0], now[0]);
+            writeFully(ch, root, levelOffset);
+            ch.force(false);
+            writeFully(ch, header(), 0);
+            ch.force(false);
+        }
+        consistent = true;
+    }
+
+    private void rebuild() throws IOException {
+        long[] now = DigestIndex.stampOf(file);
+        int n = chunkCount(now[0]);
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        build(hashLeaves(idx, now[0]), now);
+        save();
+    }
+
+    //every level above the given leaves
+    private void build(byte[][] leaves, long[] now) {
+        List<byte[][]> ls = new ArrayList<>();
+        ls.add(leaves);
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] up = new byte[(level.length + 1) / 2][];
+            for (int p = 0; p < up.length; p++) {
+                up[p] = 2 * p + 1 < level.length ? node(level[2 * p], level[2 * p + 1]) : level[2 * p];
+            }
+            ls.add(up);
+            level = up;
+        }
+        levels = ls.toArray(new byte[0][][]);
+        stamp = now;
+        root = rootOf(level[0], now[0]);
+        consistent = true;
+    }
+
+    //writes the whole tree to a temporary file and moves it over the old one
+    private void save() throws IOException {
+        Path tmp = Files.createTempFile(treeFile.toAbsolutePath().getParent(), treeFile.getFileName().toString(), ".part");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            buf.put(header());
+            for (byte[][] level : levels) {
+                for (byte[] h : level) {
+                    if (buf.remaining() < NODE_BYTES) {
+                        writeFully(out, buf.flip());
+                        buf.clear();
+                    }
+                    buf.put(h);
+                }
+            }
+            if (buf.remaining() < NODE_BYTES) {
+                writeFully(out, buf.flip());
+                buf.clear();
+            }
+            buf.put(root);
+            writeFully(out, buf.flip());
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        FileCryptor.moveIntoPlace(tmp, treeFile);
+    }
+
+    /*
+        reads the saved tree of file, null when there is none or it is cut short
+        a tree whose state shows an unfinished update is returned marked inconsistent
+    */
+    private static MerkleTree load(Path file) throws IOException {
+        Path treeFile = file.resolveSibling(file.getFileName() + ".kmt");
+        if (!Files.exists(treeFile)) return null;
+        try (FileChannel ch = FileChannel.open(treeFile, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER_BYTES) return null;
+            if (length > Integer.MAX_VALUE) throw new IllegalStateException("Merkle tree file is too large to map.");
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || map.get() != VERSION) {
+                throw new IllegalArgumentException("Not a Merkle tree file: " + treeFile);
+            }
+            boolean consistent = map.get() == 1;
+            int chunkSize = map.getInt();
+            long[] stamp = {map.getLong(), map.getLong(), map.getLong()};
+            int n = map.getInt();
+            if (chunkSize <= 0 || n <= 0) return null;
+            long nodes = 0;
+            for (int w = n; ; w = (w + 1) / 2) {
+                nodes += w;
+                if (w == 1) break;
+            }
+            if (length != HEADER_BYTES + (nodes + 1) * NODE_BYTES) return null;
+            MerkleTree tree = new MerkleTree(file, chunkSize);
+            List<byte[][]> ls = new ArrayList<>();
+            for (int w = n; ; w = (w + 1) / 2) {
+                byte[][] level = new byte[w][NODE_BYTES];
+                for (byte[] h : level) map.get(h);
+                ls.add(level);
+                if (w == 1) break;
+            }
+            tree.levels = ls.toArray(new byte[0][][]);
+            tree.root = new byte[NODE_BYTES];
+            map.get(tree.root);
+            tree.stamp = stamp;
+            tree.consistent = consistent;
+            return tree;
+        }
+    }
+
+    private byte[] header() {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        h.put(MAGIC).put(VERSION).put((byte) 1).putInt(chunkSize);
+        h.putLong(stamp[0]).putLong(stamp[1]).putLong(stamp[2]).putInt(levels[0].length);
+        return h.array();
+    }
+
+    private static void setState(FileChannel ch, int state) throws IOException {
+        writeFully(ch, new byte[] {(byte) state}, STATE_OFFSET);
+        ch.force(false);
+    }
+
+    //leaf digests of the chunks idx of the file, hashed in parallel
+    private byte[][] hashLeaves(int[] idx, long size) throws IOException {
+        byte[][] out = new byte[idx.length][];
+        if (idx.length == 0) return out;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ForkJoinPool.commonPool().invoke(new LeafTask(ch, size, idx, out, 0, idx.length));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return out;
+    }
+
+    //splits the chunk list in halves down to single chunks
+    private final class LeafTask extends RecursiveAction {
+        private final FileChannel ch;
+        private final long size;
+        private final int[] idx;
+        private final byte[][] out;
+        private final int lo;
+        private final int hi;
+
+        LeafTask(FileChannel ch, long size, int[] idx, byte[][] out, int lo, int hi) {
+            this.ch = ch;
+            this.size = size;
+            this.idx = idx;
+            this.out = out;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new LeafTask(ch, size, idx, out, lo, mid), new LeafTask(ch, size, idx, out, mid, hi));
+                return;
+            }
+            long off = (long) idx[lo] * chunkSize;
+            long len = Math.max(0, Math.min(chunkSize, size - off));
+            HashContext ctx = LEAF_CONTEXT.copy();
+            try {
+                ctx.update(ch.map(FileChannel.MapMode.READ_ONLY, off, len));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            out[lo] = ctx.squeeze(NODE_BYTES * 8);
+        }
+    }
+
+    //positional write of the whole array
+    private static void writeFully(FileChannel ch, byte[] buf, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining()) {
+            ch.write(bb, position + bb.position());
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb);
+        }
+    }
+
+    private int chunkCount(long size) {
+        long n = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (n > Integer.MAX_VALUE) throw new IllegalArgumentException("File has too many chunks for the chunk size.");
+        return (int) n;
+    }
+
+    private static byte[] node(byte[] left, byte[] right) {
+        HashContext ctx = NODE_CONTEXT.copy();
+        ctx.update(left);
+        ctx.update(right);
+        return ctx.squeeze(NODE_BYTES * 8);
+    }
+
+    private byte[] rootOf(byte[] top, long size) {
+        HashContext ctx = ROOT_CONTEXT.copy();
+        ctx.update(top);
+        ctx.update(ByteBuffer.allocate(12).putLong(size).putInt(chunkSize).array());
+        return ctx.squeeze(NODE_BYTES * 8);
+    }
+
+    private static HashContext context(byte[] customization) {
+        HashContext ctx = new HashContext();
+        ctx.initCSHAKE256(NAME, customization);
+        return ctx;
+    }
+}
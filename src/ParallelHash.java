@@ -0,0 +1,251 @@
+/*
+    *ParallelHash256 and ParallelHashXOF256 from NIST SP 800-185 sec. 6.
+    *The input is cut into B byte blocks, every block is hashed with cSHAKE256(X_i, 512, "", "")
+    *(plain SHAKE256) on a work-stealing ForkJoinPool, and the chained block digests are absorbed
+    *into the outer cSHAKE256(z, L, "ParallelHash", S):
+    *
+    *   z = left_encode(B) || h_0 || ... || h_n-1 || right_encode(n) || right_encode(L)
+    *
+    *Blocks are hashed one window at a time so memory stays bounded for any input size, and files are
+    *read straight out of memory-mapped regions. Full size blocks are hashed several at a time through
+    *the permutation backend's permuteStates, since they all take the same number of permutations.
+    *The encodings here are the SP 800-185 ones, so the output matches the NIST sample values.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public final class ParallelHash {
+    private static final int RATE = 136;
+    private static final int LEAF_BYTES = 64; // cSHAKE256(X_i, 512, "", "")
+    private static final int WINDOW_BYTES = 1 << 26; // input hashed per round of parallel leaf work
+    private static final int TASK_BYTES = 1 << 16; // smallest amount of input given to one task
+    private static final byte[] FUNCTION_NAME = "ParallelHash".getBytes();
+    private static final KeccakBackend BACKEND = Keccak.backend();
+    private static final int WAYS = BACKEND.preferredStates();
+
+    private ParallelHash() {
+    }
+
+    //ParallelHash256(X, B, L, S), L = bitLength
+    public static byte[] ParallelHash256(byte[] in, int blockSize, int bitLength, byte[] customStr) {
+        return hash(ByteBuffer.wrap(in), blockSize, bitLength, bitLength, customStr);
+    }
+
+    //ParallelHashXOF256(X, B, L, S), same as ParallelHash256 but with right_encode(0) in place of L
+    public static byte[] ParallelHashXOF256(byte[] in, int blockSize, int bitLength, byte[] customStr) {
+        return hash(ByteBuffer.wrap(in), blockSize, bitLength, 0, customStr);
+    }
+
+    public static byte[] ParallelHash256(Path file, int blockSize, int bitLength, byte[] customStr) throws IOException {
+        return hashFile(file, blockSize, bitLength, bitLength, customStr);
+    }
+
+    public static byte[] ParallelHashXOF256(Path file, int blockSize, int bitLength, byte[] customStr) throws IOException {
+        return hashFile(file, blockSize, bitLength, 0, customStr);
+    }
+
+    private static byte[] hash(ByteBuffer in, int blockSize, int bitLength, long encodedL, byte[] customStr) {
+        Outer outer = new Outer(blockSize, customStr);
+        int window = windowBytes(blockSize);
+        for (int off = 0; off < in.limit(); off += window) {
+            outer.absorbLeaves(in.slice(off, Math.min(window, in.limit() - off)));
+        }
+        return outer.finish(bitLength, encodedL);
+    }
+
+    /*
+        the file is mapped one window at a time, every mapping starts on a block boundary
+        so the leaves never span two mappings
+    */
+    private static byte[] hashFile(Path file, int blockSize, int bitLength, long encodedL, byte[] customStr) throws IOException {
+        Outer outer = new Outer(blockSize, customStr);
+        int window = windowBytes(blockSize);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long off = 0; off < size; off += window) {
+                outer.absorbLeaves(ch.map(FileChannel.MapMode.READ_ONLY, off, Math.min(window, size - off)));
+            }
+        }
+        return outer.finish(bitLength, encodedL);
+    }
+
+    private static int windowBytes(int blockSize) {
+        if (blockSize <= 0) throw new IllegalArgumentException("Block size must be positive.");
+        return Math.max(blockSize, WINDOW_BYTES / blockSize * blockSize);
+    }
+
+    /*
+        the outer cSHAKE256 sponge, fed with the leaf digests of each window in order
+    */
+    private static final class Outer {
+        private final KeccakSponge sponge = new KeccakSponge(RATE);
+        private final int blockSize;
+        private long blocks;
+
+        Outer(int blockSize, byte[] customStr) {
+            this.blockSize = blockSize;
+            byte[] header = FileHash.concat(encodeString(FUNCTION_NAME), encodeString(customStr));
+            absorb(leftEncode(RATE));
+            absorb(header);
+            sponge.fillBlock();
+            absorb(leftEncode(blockSize));
+        }
+
+        void absorbLeaves(ByteBuffer window) {
+            int n = (window.limit() + blockSize - 1) / blockSize;
+            byte[] digests = new byte[n * LEAF_BYTES];
+            ForkJoinPool.commonPool().invoke(new LeafTask(window, blockSize, 0x1f, Keccak.ROUNDS, digests, 0, n));
+            absorb(digests);
+            blocks += n;
+        }
+
+        byte[] finish(int bitLength, long encodedL) {
+            absorb(rightEncode(blocks));
+            absorb(rightEncode(encodedL));
+            sponge.pad(0x04);
+            byte[] out = new byte[bitLength / 8];
+            sponge.squeeze(out, 0, out.length);
+            return out;
+        }
+
+        private void absorb(byte[] b) {
+            sponge.absorb(b, 0, b.length);
+        }
+    }
+
+    /*
+        hashes the blocks lo..hi-1 of a window, splitting while there is more than TASK_BYTES of input
+        every block gets the sponge of rate 136 with `rounds` rounds, padded with suffix and squeezed to
+        64 bytes: SHAKE256 here, TurboSHAKE256 for the KT256 leaves in TurboShake
+    */
+    static final class LeafTask extends RecursiveAction {
+        private final ByteBuffer window;
+        private final int blockSize;
+        private final int suffix;
+        private final int rounds;
+        private final byte[] digests;
+        private final int lo;
+        private final int hi;
+
+        LeafTask(ByteBuffer window, int blockSize, int suffix, int rounds, byte[] digests, int lo, int hi) {
+            this.window = window;
+            this.blockSize = blockSize;
+            this.suffix = suffix;
+            this.rounds = rounds;
+            this.digests = digests;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1 && (long) (hi - lo) * blockSize > TASK_BYTES) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new LeafTask(window, blockSize, suffix, rounds, digests, lo, mid),
+                        new LeafTask(window, blockSize, suffix, rounds, digests, mid, hi));
+                return;
+            }
+            // leaves that fill a whole block go WAYS at a time, only a short last leaf uses a sponge of its own
+            int full = Math.min(hi, window.limit() / blockSize);
+            long[] a = new long[25 * WAYS];
+            int i = lo;
+            while (i < full) {
+                int n = Math.min(WAYS, full - i);
+                hashLeaves(window, blockSize, suffix, rounds, digests, i, n, a);
+                i += n;
+            }
+            if (i < hi) {
+                KeccakSponge leaf = new KeccakSponge(RATE, rounds);
+                int off = i * blockSize;
+                leaf.absorb(window.slice(off, window.limit() - off));
+                leaf.pad(suffix);
+                leaf.squeeze(digests, i * LEAF_BYTES, LEAF_BYTES);
+            }
+        }
+    }
+
+    /*
+        the n full size leaves first .. first + n - 1 in lockstep, lane i of leaf k's state at a[i*n + k]
+    */
+    private static void hashLeaves(ByteBuffer window, int blockSize, int suffix, int rounds,
+                                   byte[] digests, int first, int n, long[] a) {
+        ByteBuffer in = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Arrays.fill(a, 0L);
+        int blocks = blockSize / RATE;
+        int tail = blockSize % RATE;
+        for (int t = 0; t < blocks; t++) {
+            for (int k = 0; k < n; k++) {
+                int base = (first + k) * blockSize + t * RATE;
+                for (int lane = 0; lane < RATE / 8; lane++) {
+                    a[lane*n + k] ^= in.getLong(base + 8*lane);
+                }
+            }
+            BACKEND.permuteStates(a, n, rounds);
+            CryptoMetrics.permutations(n);
+        }
+        // last block: the remaining tail bytes, then the suffix and the final 0x80 of pad10*1
+        for (int k = 0; k < n; k++) {
+            int base = (first + k) * blockSize + blocks * RATE;
+            int p = 0;
+            for (; p + 8 <= tail; p += 8) {
+                a[(p >>> 3)*n + k] ^= in.getLong(base + p);
+            }
+            for (; p < tail; p++) {
+                a[(p >>> 3)*n + k] ^= (long) (in.get(base + p) & 0xff) << ((p & 7) << 3);
+            }
+            a[(tail >>> 3)*n + k] ^= (long) suffix << ((tail & 7) << 3);
+            a[(RATE/8 - 1)*n + k] ^= 0x80L << 56;
+        }
+        BACKEND.permuteStates(a, n, rounds);
+        CryptoMetrics.permutations(n);
+        for (int k = 0; k < n; k++) {
+            int out = (first + k) * LEAF_BYTES;
+            for (int lane = 0; lane < LEAF_BYTES / 8; lane++) {
+                long w = a[lane*n + k];
+                for (int j = 0; j < 8; j++) {
+                    digests[out + 8*lane + j] = (byte) (w >>> (8 * j));
+                }
+            }
+        }
+    }
+
+    /*
+        SP 800-185 sec. 2.3.1 encodings, big endian with the byte count in front (left) or behind (right)
+    */
+    static byte[] leftEncode(long x) {
+        int n = byteCount(x);
+        byte[] out = new byte[n + 1];
+        out[0] = (byte) n;
+        for (int i = 1; i <= n; i++) {
+            out[i] = (byte) (x >>> (8 * (n - i)));
+        }
+        return out;
+    }
+
+    static byte[] rightEncode(long x) {
+        int n = byteCount(x);
+        byte[] out = new byte[n + 1];
+        for (int i = 0; i < n; i++) {
+            out[i] = (byte) (x >>> (8 * (n - 1 - i)));
+        }
+        out[n] = (byte) n;
+        return out;
+    }
+
+    static byte[] encodeString(byte[] s) {
+        return FileHash.concat(leftEncode((long) s.length << 3), s);
+    }
+
+    private static int byteCount(long x) {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(x) + 7) / 8);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+    *The plain Java permutation of Keccak, one state at a time or two states interleaved
+    *instruction by instruction. Works on every JVM and is the fallback for all others.
+*/
+
+final class ScalarKeccakBackend implements KeccakBackend {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public int preferredStates() {
+        return 2;
+    }
+
+    @Override
+    public void permute(long[] a, int rounds) {
+        Keccak.permute(a, rounds);
+    }
+
+    @Override
+    public void permuteStates(long[] a, int n, int rounds) {
+        Keccak.permuteInterleaved(a, n, rounds);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+    *Absorbing java.lang.foreign.MemorySegment input (native memory, mapped files, heap arrays) in place.
+    *Lanes are read with one little endian long access each, straight out of the segment.
+    *MemorySegment is a preview API in Java 21 and a class using it only loads with --enable-preview,
+    *so these overloads live here rather than in KeccakSponge and HashContext, which keep working
+    *on any JVM.
+*/
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+
+public final class SegmentInput {
+    private static final ValueLayout.OfLong LANE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private SegmentInput() {
+    }
+
+    //absorbs all bytes of in
+    public static void absorb(KeccakSponge sponge, MemorySegment in) {
+        long p = 0;
+        long lim = in.byteSize();
+        while (p < lim && (sponge.position() & 7) != 0) {
+            sponge.absorb(in.get(ValueLayout.JAVA_BYTE, p++));
+        }
+        while (lim - p >= 8) {
+            sponge.absorbLane(in.get(LANE, p));
+            p += 8;
+        }
+        while (p < lim) {
+            sponge.absorb(in.get(ValueLayout.JAVA_BYTE, p++));
+        }
+    }
+
+    public static void update(HashContext ctx, MemorySegment in) {
+        ctx.requireInitialized();
+        absorb(ctx.sponge(), in);
+    }
+
+    //KMACXOF256(key, in, bitLength, customString) without copying in onto the heap
+    public static byte[] KMACXOF256(byte[] key, MemorySegment in, int bitLength, byte[] customString) {
+        long start = System.nanoTime();
+        HashContext ctx = new HashContext();
+        ctx.init(key, customString);
+        update(ctx, in);
+        byte[] out = ctx.squeeze(bitLength);
+        CryptoMetrics.record(CryptoMetrics.Op.KMACXOF256, customString, in.byteSize(), start, false);
+        return out;
+    }
+
+    public static byte[] SHAKE256(MemorySegment in, int bitLength) {
+        HashContext ctx = new HashContext();
+        ctx.initSHAKE256();
+        update(ctx, in);
+        return ctx.squeeze(bitLength);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+    *Segmented (version 2) cryptogram format for encrypting and decrypting one large file on many cores.
+    *
+    *The plaintext is cut into fixed size segments that are keyed independently, so every segment can
+    *be encrypted, decrypted and authenticated on its own ForkJoinPool worker:
+    *
+    *   header = "KMCG" || version (1 byte) || segment size (4 bytes) || plaintext length (8 bytes)
+    *   cryptogram = header || rand || (c_0 || t_0) || ... || (c_n-1 || t_n-1) || T
+    *
+    *with ke || ka = KMACXOF256(rand || pw, "", 1024, "S") as in the original format and, for segment i,
+    *   c_i = m_i XOR KMACXOF256(ke, "", |m_i|, "SKE" || i)
+    *   t_i = KMACXOF256(ka, m_i, 512, "SKA" || i)
+    *   T   = KMACXOF256(ka, header || t_0 || ... || t_n-1, 512, "SKF")
+    *where i is an 8 byte big endian index. T binds the header and the order and number of the segments,
+    *so segments cannot be dropped, reordered or spliced in from another cryptogram.
+    *The original rand || c || t format (Main.encryptKMAC, FileCryptor) is unchanged.
+*/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public final class SegmentedCryptor {
+    static final byte VERSION = 2;
+    static final int HEADER_BYTES = 17;
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    private static final byte[] MAGIC = {'K', 'M', 'C', 'G'};
+    private static final int RAND_BYTES = FileCryptor.RAND_BYTES;
+    private static final int TAG_BYTES = FileCryptor.TAG_BYTES;
+
+    private static final int ENCRYPT_ID = CryptoMetrics.id(CryptoMetrics.Op.ENCRYPT, null);
+    static final int DECRYPT_ID = CryptoMetrics.id(CryptoMetrics.Op.DECRYPT, null);
+
+    private SegmentedCryptor() {
+    }
+
+    public static void encrypt(Path in, Path out, String pw) throws IOException {
+        encrypt(in, out, pw, DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /*
+        encrypts the file at in into a segmented cryptogram at out
+        segments are processed in parallel on pool, each worker holds one segment in memory at a time
+        the cryptogram is written to a temporary file next to out and moved into place once complete,
+        so a failed run leaves no truncated cryptogram and in may be out itself
+    */
+    public static void encrypt(Path in, Path out, String pw, int segmentSize, ForkJoinPool pool) throws IOException {
+        if (segmentSize <= 0) throw new IllegalArgumentException("Segment size must be positive.");
+        long start = System.nanoTime();
+        byte[] rand = new byte[RAND_BYTES];
+        CShakeDrbg.current().nextBytes(rand);
+        byte[][] keys = FileCryptor.deriveKeys(rand, pw);
+
+        Path tmp = Files.createTempFile(out.toAbsolutePath().getParent(), out.getFileName().toString(), ".part");
+        boolean complete = false;
+        long length;
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            length = src.size();
+            byte[] header = header(segmentSize, length);
+            int segments = segmentCount(length, segmentSize);
+            byte[][] tags = new byte[segments][];
+
+            writeFully(dst, header, 0);
+            writeFully(dst, rand, HEADER_BYTES);
+            invoke(pool, new SegmentTask(src, dst, keys, segmentSize, length, tags, true, 0, segments));
+
+            byte[] t = finalTag(keys[1], header, tags);
+            writeFully(dst, t, HEADER_BYTES + RAND_BYTES + length + (long) segments * TAG_BYTES);
+            complete = true;
+        } finally {
+            if (!complete) Files.deleteIfExists(tmp);
+        }
+        FileCryptor.moveIntoPlace(tmp, out);
+        CryptoMetrics.record(ENCRYPT_ID, length, start, false);
+    }
+
+    public static void decrypt(Path in, Path out, String pw) throws IOException {
+        decrypt(in, out, pw, ForkJoinPool.commonPool());
+    }
+
+    /*
+        decrypts a segmented cryptogram at in into out
+        every segment tag and the final tag are checked before the plaintext is moved into place
+    */
+    public static void decrypt(Path in, Path out, String pw, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        long length = 0;
+        Path dir = out.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, out.getFileName().toString(), ".part");
+        boolean verified = false;
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Header h = Header.read(src);
+            length = h.length;
+            byte[][] keys = FileCryptor.deriveKeys(h.rand, pw);
+            byte[][] tags = new byte[h.segments][];
+            invoke(pool, new SegmentTask(src, dst, keys, h.segmentSize, h.length, tags, false, 0, h.segments));
+            h.checkFinalTag(src, keys[1], tags);
+            verified = true;
+            CryptoMetrics.record(DECRYPT_ID, length, start, false);
+        } catch (FileCryptor.TagMismatchException e) {
+            CryptoMetrics.record(DECRYPT_ID, length, start, true);
+            throw e;
+        } finally {
+            if (!verified) Files.deleteIfExists(tmp);
+        }
+        FileCryptor.moveIntoPlace(tmp, out);
+    }
+
+    /*
+        header, rand and layout of a segmented cryptogram, checked against the size of the file
+        segment i holds plaintext bytes [i * segmentSize, i * segmentSize + plainLength(i))
+    */
+    static final class Header {
+        final byte[] bytes;
+        final int segmentSize;
+        final long length;
+        final int segments;
+        final byte[] rand;
+
+        private Header(byte[] bytes, int segmentSize, long length, byte[] rand) {
+            this.bytes = bytes;
+            this.segmentSize = segmentSize;
+            this.length = length;
+            this.segments = segmentCount(length, segmentSize);
+            this.rand = rand;
+        }
+
+        static Header read(FileChannel src) throws IOException {
+            byte[] header = new byte[HEADER_BYTES];
+            if (src.size() < HEADER_BYTES + RAND_BYTES + TAG_BYTES) throw new IllegalArgumentException("Cryptogram is too short.");
+            FileCryptor.readFully(src, header, 0, HEADER_BYTES);
+            ByteBuffer hb = ByteBuffer.wrap(header);
+            byte[] magic = new byte[MAGIC.length];
+            hb.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || hb.get() != VERSION) {
+                throw new IllegalArgumentException("Not a segmented cryptogram.");
+            }
+            int segmentSize = hb.getInt();
+            long length = hb.getLong();
+            if (segmentSize <= 0 || length < 0) throw new IllegalArgumentException("Corrupt cryptogram header.");
+            byte[] rand = new byte[RAND_BYTES];
+            FileCryptor.readFully(src, rand, HEADER_BYTES, RAND_BYTES);
+            Header h = new Header(header, segmentSize, length, rand);
+            if (src.size() != h.cryptOffset(h.segments) + TAG_BYTES) {
+                throw new IllegalArgumentException("Cryptogram length doesn't match its header.");
+            }
+            return h;
+        }
+
+        int plainLength(int i) {
+            return (int) Math.min(segmentSize, length - (long) i * segmentSize);
+        }
+
+        //file offset of c_i, for i == segments the offset of T
+        long cryptOffset(int i) {
+            return HEADER_BYTES + RAND_BYTES + Math.min((long) i * segmentSize, length) + (long) i * TAG_BYTES;
+        }
+
+        //checks T against the segment tags t_0 .. t_n-1
+        void checkFinalTag(FileChannel src, byte[] ka, byte[][] tags) throws IOException {
+            byte[] t = new byte[TAG_BYTES];
+            FileCryptor.readFully(src, t, cryptOffset(segments), TAG_BYTES);
+            if (!MessageDigest.isEqual(t, finalTag(ka, bytes, tags))) {
+                throw new FileCryptor.TagMismatchException();
+            }
+        }
+    }
+
+    /*
+        decrypts segment i, read from src as c_i || t_i into buf, in place and checks t_i
+        returns t_i, the plaintext is in the first h.plainLength(i) bytes of buf
+    */
+    static byte[] decryptSegment(FileChannel src, Header h, byte[][] keys, int i, byte[] buf) throws IOException {
+        int n = h.plainLength(i);
+        FileCryptor.readFully(src, buf, h.cryptOffset(i), n + TAG_BYTES);
+        HashContext tag = new HashContext();
+        tag.init(keys[1], indexed("SKA", i));
+        FileCryptor.crypt(keystream(keys[0], i), tag, buf, 0, buf, 0, n, false);
+        byte[] t = tag.squeeze(TAG_BYTES * 8);
+        if (!MessageDigest.isEqual(Arrays.copyOfRange(buf, n, n + TAG_BYTES), t)) {
+            throw new FileCryptor.TagMismatchException();
+        }
+        return t;
+    }
+
+    /*
+        splits the segment range in halves until single segments remain
+        each leaf reads its segment at a fixed offset, so no ordering between workers is needed
+    */
+    private static final class SegmentTask extends RecursiveAction {
+        private final FileChannel src;
+        private final FileChannel dst;
+        private final byte[][] keys;
+        private final int segmentSize;
+        private final long length;
+        private final byte[][] tags;
+        private final boolean encrypt;
+        private final int lo;
+        private final int hi;
+
+        SegmentTask(FileChannel src, FileChannel dst, byte[][] keys, int segmentSize, long length,
+                    byte[][] tags, boolean encrypt, int lo, int hi) {
+            this.src = src;
+            this.dst = dst;
+            this.keys = keys;
+            this.segmentSize = segmentSize;
+            this.length = length;
+            this.tags = tags;
+            this.encrypt = encrypt;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SegmentTask(src, dst, keys, segmentSize, length, tags, encrypt, lo, mid),
+                        new SegmentTask(src, dst, keys, segmentSize, length, tags, encrypt, mid, hi));
+                return;
+            }
+            if (hi == lo) return;
+            try {
+                process(lo);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void process(int i) throws IOException {
+            long plainOffset = (long) i * segmentSize;
+            int n = (int) Math.min(segmentSize, length - plainOffset);
+            long cryptOffset = HEADER_BYTES + RAND_BYTES + plainOffset + (long) i * TAG_BYTES;
+            byte[] buf = new byte[n];
+
+            FileCryptor.readFully(src, buf, encrypt ? plainOffset : cryptOffset, n);
+            HashContext tag = new HashContext();
+            tag.init(keys[1], indexed("SKA", i));
+            FileCryptor.crypt(keystream(keys[0], i), tag, buf, 0, buf, 0, n, encrypt);
+            byte[] t = tag.squeeze(TAG_BYTES * 8);
+
+            if (encrypt) {
+                writeFully(dst, buf, cryptOffset);
+                writeFully(dst, t, cryptOffset + n);
+            } else {
+                byte[] stored = new byte[TAG_BYTES];
+                FileCryptor.readFully(src, stored, cryptOffset + n, TAG_BYTES);
+                if (!MessageDigest.isEqual(stored, t)) {
+                    throw new FileCryptor.TagMismatchException();
+                }
+                writeFully(dst, buf, plainOffset);
+            }
+            tags[i] = t;
+        }
+    }
+
+    private static HashContext keystream(byte[] ke, int i) {
+        HashContext ctx = new HashContext();
+        ctx.init(ke, indexed("SKE", i));
+        return ctx;
+    }
+
+    private static byte[] finalTag(byte[] ka, byte[] header, byte[][] tags) {
+        HashContext ctx = new HashContext();
+        ctx.init(ka, "SKF".getBytes());
+        ctx.update(header);
+        for (byte[] t : tags) {
+            ctx.update(t);
+        }
+        return ctx.squeeze(TAG_BYTES * 8);
+    }
+
+    //customization string name || 8 byte big endian segment index
+    private static byte[] indexed(String name, long i) {
+        byte[] s = name.getBytes();
+        return ByteBuffer.allocate(s.length + 8).put(s).putLong(i).array();
+    }
+
+    private static byte[] header(int segmentSize, long length) {
+        return ByteBuffer.allocate(HEADER_BYTES).put(MAGIC).put(VERSION).putInt(segmentSize).putLong(length).array();
+    }
+
+    private static int segmentCount(long length, int segmentSize) {
+        long n = (length + segmentSize - 1) / segmentSize;
+        if (n > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many segments, use a larger segment size.");
+        return (int) n;
+    }
+
+    private static void invoke(ForkJoinPool pool, SegmentTask task) throws IOException {
+        try {
+            pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    //positional write of the whole array, safe to call from several workers at once
+    private static void writeFully(FileChannel dst, byte[] buf, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining()) {
+            dst.write(bb, position + bb.position());
+        }
+    }
+}
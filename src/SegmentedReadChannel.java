@@ -0,0 +1,153 @@
+/*
+    *Read-only SeekableByteChannel over the plaintext of a segmented (version 2) cryptogram.
+    *Every segment of that format has its own keystream KMACXOF256(ke, "", |m_i|, "SKE" || i) and its own
+    *tag t_i, so a read at any position only decrypts and authenticates the segment it falls in: the
+    *cost of a random read is one segment (1 MiB by default), not the whole file.
+    *
+    *open() checks the final tag T over the header and the stored segment tags, which reads 64 bytes
+    *per segment but no segment data. A segment's tag is then checked the first time it is read, so no
+    *byte is ever returned that has not been authenticated, and segments cannot be dropped, reordered
+    *or taken from another cryptogram. The segment last read stays decrypted for sequential reads.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+public final class SegmentedReadChannel implements SeekableByteChannel {
+    private final FileChannel src;
+    private final SegmentedCryptor.Header header;
+    private final byte[][] keys;
+    private final byte[] segment; // plaintext of segment `current` followed by its tag
+    private int current = -1;
+    private long position;
+    private boolean open = true;
+
+    private SegmentedReadChannel(FileChannel src, SegmentedCryptor.Header header, byte[][] keys) {
+        this.src = src;
+        this.header = header;
+        this.keys = keys;
+        this.segment = new byte[(int) Math.min(header.segmentSize, header.length) + FileCryptor.TAG_BYTES];
+    }
+
+    /*
+        opens the segmented cryptogram at file for reading under passphrase pw
+        fails with IllegalArgumentException when the file is not one or its final tag does not verify
+    */
+    public static SegmentedReadChannel open(Path file, String pw) throws IOException {
+        long start = System.nanoTime();
+        FileChannel src = FileChannel.open(file, StandardOpenOption.READ);
+        boolean opened = false;
+        try {
+            SegmentedCryptor.Header h = SegmentedCryptor.Header.read(src);
+            byte[][] keys = FileCryptor.deriveKeys(h.rand, pw);
+            byte[][] tags = new byte[h.segments][FileCryptor.TAG_BYTES];
+            for (int i = 0; i < h.segments; i++) {
+                FileCryptor.readFully(src, tags[i], h.cryptOffset(i) + h.plainLength(i), FileCryptor.TAG_BYTES);
+            }
+            h.checkFinalTag(src, keys[1], tags);
+            SegmentedReadChannel ch = new SegmentedReadChannel(src, h, keys);
+            opened = true;
+            return ch;
+        } catch (FileCryptor.TagMismatchException e) {
+            CryptoMetrics.record(SegmentedCryptor.DECRYPT_ID, 0, start, true);
+            throw e;
+        } finally {
+            if (!opened) src.close();
+        }
+    }
+
+    /*
+        reads from the current position into dst, across segment boundaries until dst is full or the
+        plaintext ends, -1 at the end
+    */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= header.length) return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < header.length) {
+            int i = (int) (position / header.segmentSize);
+            if (i != current) load(i);
+            int off = (int) (position - (long) i * header.segmentSize);
+            int n = Math.min(dst.remaining(), header.plainLength(i) - off);
+            dst.put(segment, off, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    //every segment decrypted counts as one DECRYPT of its plaintext length
+    private void load(int i) throws IOException {
+        long start = System.nanoTime();
+        current = -1; // nothing valid in the buffer should decryption fail half way
+        try {
+            SegmentedCryptor.decryptSegment(src, header, keys, i, segment);
+        } catch (FileCryptor.TagMismatchException e) {
+            CryptoMetrics.record(SegmentedCryptor.DECRYPT_ID, header.plainLength(i), start, true);
+            throw e;
+        }
+        CryptoMetrics.record(SegmentedCryptor.DECRYPT_ID, header.plainLength(i), start, false);
+        current = i;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    //a position at or past size() is allowed, reads there return -1
+    @Override
+    public synchronized SegmentedReadChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("Position must not be negative.");
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    //length of the plaintext
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return header.length;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    //closes the file and wipes the keys and the decrypted segment
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) return;
+        open = false;
+        current = -1;
+        Arrays.fill(segment, (byte) 0);
+        for (byte[] k : keys) Arrays.fill(k, (byte) 0);
+        src.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+    *Table driven hex and Base64 encoding of cryptograms, in memory or streamed between
+    *streams, channels and files so a large cryptogram never has to be held as text.
+    *
+    *Hex is written as upper case byte pairs separated by spaces, the format bytesToHexString has always
+    *printed, with a line break after every 32 bytes when streamed. Decoding skips any whitespace.
+    *Base64 is MIME style (76 character lines) and is handled by java.util.Base64, which is table driven
+    *and streams through wrap(). RAW copies the bytes unchanged, for binary cryptogram files.
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+
+
+public final class TextCodec {
+
+    public enum Format { HEX, BASE64, RAW }
+
+    private static final int CHUNK = 1 << 16; // input bytes handled per read
+    private static final int HEX_LINE_BYTES = 32;
+    private static final byte[] DIGITS = "0123456789ABCDEF".getBytes();
+    private static final byte WHITESPACE = -2;
+    private static final byte INVALID = -1;
+    // value of every ASCII hex digit, WHITESPACE for the characters decoding skips, INVALID for the rest
+    private static final byte[] VALUES = new byte[256];
+
+    static {
+        Arrays.fill(VALUES, INVALID);
+        for (int i = 0; i < 10; i++) VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            VALUES['A' + i] = (byte) (10 + i);
+            VALUES['a' + i] = (byte) (10 + i);
+        }
+        for (char c : new char[] {' ', '\t', '\n', '\r', '\f'}) VALUES[c] = WHITESPACE;
+    }
+
+    private TextCodec() {
+    }
+
+    //"AA BB CC ..." for the whole array, on one line
+    public static String toHex(byte[] b) {
+        if (b.length == 0) return "";
+        char[] out = new char[3 * b.length - 1];
+        for (int i = 0, o = 0; i < b.length; i++) {
+            if (i > 0) out[o++] = ' ';
+            out[o++] = (char) DIGITS[(b[i] >>> 4) & 0xf];
+            out[o++] = (char) DIGITS[b[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    //bytes of a hex string, whitespace anywhere is skipped
+    public static byte[] fromHex(CharSequence s) {
+        byte[] out = new byte[s.length() / 2];
+        int n = 0;
+        int high = -1;
+        for (int i = 0; i < s.length(); i++) {
+            int v = value(s.charAt(i));
+            if (v == WHITESPACE) continue;
+            if (high < 0) {
+                high = v;
+            } else {
+                out[n++] = (byte) (high << 4 | v);
+                high = -1;
+            }
+        }
+        if (high >= 0) throw new IllegalArgumentException("Hex string has an odd number of digits.");
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /*
+        streams all of in into out as text in format f, or copies it for RAW
+        neither stream is closed
+    */
+    public static void encode(InputStream in, OutputStream out, Format f) throws IOException {
+        switch (f) {
+            case HEX:
+                encodeHex(in, out);
+                break;
+            case BASE64: {
+                OutputStream b64 = Base64.getMimeEncoder(76, new byte[] {'\n'}).wrap(new NonClosing(out));
+                in.transferTo(b64);
+                b64.close(); // writes the final quantum and padding
+                out.write('\n');
+                break;
+            }
+            default:
+                in.transferTo(out);
+        }
+    }
+
+    //streams text in format f from in and writes the decoded bytes to out
+    public static void decode(InputStream in, OutputStream out, Format f) throws IOException {
+        switch (f) {
+            case HEX:
+                decodeHex(in, out);
+                break;
+            case BASE64:
+                Base64.getMimeDecoder().wrap(in).transferTo(out);
+                break;
+            default:
+                in.transferTo(out);
+        }
+    }
+
+    public static void encode(ReadableByteChannel in, WritableByteChannel out, Format f) throws IOException {
+        OutputStream os = Channels.newOutputStream(out);
+        encode(Channels.newInputStream(in), os, f);
+        os.flush();
+    }
+
+    public static void decode(ReadableByteChannel in, WritableByteChannel out, Format f) throws IOException {
+        OutputStream os = Channels.newOutputStream(out);
+        decode(Channels.newInputStream(in), os, f);
+        os.flush();
+    }
+
+    //writes b to file in format f
+    public static void write(Path file, byte[] b, Format f) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), CHUNK)) {
+            encode(new ByteArrayInputStream(b), out, f);
+        }
+    }
+
+    //reads a file written in format f back into bytes
+    public static byte[] read(Path file, Format f) throws IOException {
+        if (f == Format.RAW) return Files.readAllBytes(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, Files.size(file) / 3));
+        try (InputStream in = Files.newInputStream(file)) {
+            decode(in, out, f);
+        }
+        return out.toByteArray();
+    }
+
+    private static void encodeHex(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[CHUNK];
+        // 3 characters per byte, the line break takes the place of the last space on a line
+        byte[] text = new byte[3 * CHUNK];
+        long written = 0;
+        int n;
+        while ((n = in.readNBytes(buf, 0, CHUNK)) > 0) {
+            int o = 0;
+            for (int i = 0; i < n; i++, written++) {
+                if (written > 0) text[o++] = (byte) (written % HEX_LINE_BYTES == 0 ? '\n' : ' ');
+                text[o++] = DIGITS[(buf[i] >>> 4) & 0xf];
+                text[o++] = DIGITS[buf[i] & 0xf];
+            }
+            out.write(text, 0, o);
+        }
+        if (written > 0) out.write('\n');
+    }
+
+    private static void decodeHex(InputStream in, OutputStream out) throws IOException {
+        byte[] text = new byte[CHUNK];
+        byte[] buf = new byte[CHUNK / 2 + 1];
+        int high = -1; // a digit left over from the previous chunk
+        int n;
+        while ((n = in.read(text)) >= 0) {
+            int o = 0;
+            for (int i = 0; i < n; i++) {
+                int v = VALUES[text[i] & 0xff];
+                if (v == WHITESPACE) continue;
+                if (v == INVALID) throw new IllegalArgumentException("Not a hex digit: '" + (char) (text[i] & 0xff) + "'");
+                if (high < 0) {
+                    high = v;
+                } else {
+                    buf[o++] = (byte) (high << 4 | v);
+                    high = -1;
+                }
+            }
+            out.write(buf, 0, o);
+        }
+        if (high >= 0) throw new IllegalArgumentException("Hex text has an odd number of digits.");
+    }
+
+    private static int value(char c) {
+        int v = c < 256 ? VALUES[c] : INVALID;
+        if (v == INVALID) throw new IllegalArgumentException("Not a hex digit: '" + c + "'");
+        return v;
+    }
+
+    //keeps Base64's wrapping encoder from closing the caller's stream
+    private static final class NonClosing extends FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
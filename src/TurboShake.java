@@ -0,0 +1,190 @@
+/*
+    *TurboSHAKE256 and KT256 (KangarooTwelve with 256 bit security) from RFC 9861.
+    *
+    *REDUCED ROUND MODES: both run Keccak-p[1600, 12], the last 12 of the 24 rounds, so they are about
+    *twice as fast per core as SHAKE256 / KMACXOF256 but keep a smaller safety margin. They are meant
+    *for non-adversarial uses such as deduplication and cache keys, not in place of the KMACXOF256
+    *digests, tags and cryptograms of the rest of the app, and their outputs are unrelated to those.
+    *
+    *   TurboSHAKE256(M, D, L): sponge of rate 136 bytes, M || D absorbed, then pad10*1
+    *   KT256(M, C, L):         S = M || C || length_encode(|C|) cut into 8192 byte chunks S_0 .. S_n-1,
+    *                           TurboSHAKE256(S, 07, L) when n == 1, otherwise
+    *                           TurboSHAKE256(S_0 || 03 00 00 00 00 00 00 00 || CV_1 || ... || CV_n-1
+    *                                         || length_encode(n - 1) || FF FF, 06, L)
+    *                           with CV_i = TurboSHAKE256(S_i, 0B, 512)
+    *
+    *The chunks CV_i are hashed on the common ForkJoinPool, several at a time through the permutation
+    *backend like the ParallelHash leaves, so long inputs also scale across cores. Files are read through
+    *memory-mapped windows and only the chaining values of one window are held at a time.
+    *Outputs match the RFC 9861 test vectors.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+
+public final class TurboShake {
+    //rounds of Keccak-p[1600, 12]
+    public static final int ROUNDS = 12;
+    //domain separation byte of plain TurboSHAKE256 use
+    public static final int DEFAULT_DOMAIN = 0x1f;
+
+    private static final int RATE = 136;
+    private static final int CHUNK = 8192;
+    private static final int CV_BYTES = 64;
+    private static final int WINDOW_BYTES = 1 << 26; // file bytes mapped at a time, a multiple of CHUNK
+    private static final byte[] NODE_MARKER = {3, 0, 0, 0, 0, 0, 0, 0};
+    private static final byte[] TREE_END = {(byte) 0xff, (byte) 0xff};
+
+    private TurboShake() {
+    }
+
+    //TurboSHAKE256(in, 1F, bitLength)
+    public static byte[] TurboSHAKE256(byte[] in, int bitLength) {
+        return TurboSHAKE256(in, DEFAULT_DOMAIN, bitLength);
+    }
+
+    //TurboSHAKE256(in, domain, bitLength), domain between 0x01 and 0x7F
+    public static byte[] TurboSHAKE256(byte[] in, int domain, int bitLength) {
+        checkDomain(domain);
+        KeccakSponge sponge = newSponge();
+        sponge.absorb(in, 0, in.length);
+        return squeeze(sponge, domain, bitLength);
+    }
+
+    public static byte[] TurboSHAKE256(ByteBuffer in, int domain, int bitLength) {
+        checkDomain(domain);
+        KeccakSponge sponge = newSponge();
+        sponge.absorb(in);
+        return squeeze(sponge, domain, bitLength);
+    }
+
+    //KT256(in, customization, bitLength)
+    public static byte[] KT256(byte[] in, byte[] customization, int bitLength) {
+        return KT256(ByteBuffer.wrap(in), customization, bitLength);
+    }
+
+    //KT256 of the remaining bytes of a heap, direct or mapped buffer, read in place
+    public static byte[] KT256(ByteBuffer in, byte[] customization, int bitLength) {
+        byte[] suffix = suffix(customization);
+        long total = (long) in.remaining() + suffix.length;
+        if (total <= CHUNK) {
+            KeccakSponge sponge = newSponge();
+            sponge.absorb(in);
+            sponge.absorb(suffix, 0, suffix.length);
+            return squeeze(sponge, 0x07, bitLength);
+        }
+        Tree tree = new Tree();
+        ByteBuffer m = in.slice();
+        int whole = m.limit() / CHUNK * CHUNK;
+        for (int off = 0; off < whole; off += WINDOW_BYTES) {
+            tree.absorbChunks(m.slice(off, Math.min(WINDOW_BYTES, whole - off)));
+        }
+        tree.absorbTail(m.slice(whole, m.limit() - whole), suffix);
+        in.position(in.limit());
+        return tree.finish(bitLength);
+    }
+
+    //KT256 of a file, mapped one window at a time
+    public static byte[] KT256(Path file, byte[] customization, int bitLength) throws IOException {
+        byte[] suffix = suffix(customization);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size + suffix.length <= CHUNK) {
+                return KT256(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), customization, bitLength);
+            }
+            Tree tree = new Tree();
+            long whole = size / CHUNK * CHUNK;
+            for (long off = 0; off < whole; off += WINDOW_BYTES) {
+                tree.absorbChunks(ch.map(FileChannel.MapMode.READ_ONLY, off, Math.min(WINDOW_BYTES, whole - off)));
+            }
+            tree.absorbTail(ch.map(FileChannel.MapMode.READ_ONLY, whole, size - whole), suffix);
+            return tree.finish(bitLength);
+        }
+    }
+
+    /*
+        final node of the KT256 tree: S_0 and the marker, then the chaining values in chunk order
+        chunks arrive as whole chunks in order, then once as the partial tail of the input
+    */
+    private static final class Tree {
+        private final KeccakSponge node = newSponge();
+        private boolean started; // S_0 absorbed
+        private long leaves;
+
+        //whole chunks, S_0 first if it has not been seen yet
+        void absorbChunks(ByteBuffer chunks) {
+            int off = 0;
+            if (!started) {
+                node.absorb(chunks.slice(0, CHUNK));
+                node.absorb(NODE_MARKER, 0, NODE_MARKER.length);
+                started = true;
+                off = CHUNK;
+            }
+            int n = (chunks.limit() - off) / CHUNK;
+            if (n == 0) return;
+            byte[] cvs = new byte[n * CV_BYTES];
+            ForkJoinPool.commonPool().invoke(new ParallelHash.LeafTask(chunks.slice(off, n * CHUNK), CHUNK, 0x0b,
+                    ROUNDS, cvs, 0, n));
+            node.absorb(cvs, 0, cvs.length);
+            leaves += n;
+        }
+
+        //the rest of the input, less than a chunk, followed by C || length_encode(|C|)
+        void absorbTail(ByteBuffer rest, byte[] suffix) {
+            ByteBuffer tail = ByteBuffer.allocate(rest.remaining() + suffix.length).put(rest).put(suffix).flip();
+            int whole = tail.limit() / CHUNK * CHUNK;
+            if (whole > 0) absorbChunks(tail.slice(0, whole));
+            if (whole < tail.limit()) {
+                byte[] cv = TurboSHAKE256(tail.slice(whole, tail.limit() - whole), 0x0b, CV_BYTES * 8);
+                node.absorb(cv, 0, cv.length);
+                leaves++;
+            }
+        }
+
+        byte[] finish(int bitLength) {
+            byte[] n = lengthEncode(leaves);
+            node.absorb(n, 0, n.length);
+            node.absorb(TREE_END, 0, TREE_END.length);
+            return squeeze(node, 0x06, bitLength);
+        }
+    }
+
+    //C || length_encode(|C|)
+    private static byte[] suffix(byte[] customization) {
+        return FileHash.concat(customization, lengthEncode(customization.length));
+    }
+
+    /*
+        RFC 9861 length_encode: x big endian without leading zero bytes, then the number of those bytes
+        length_encode(0) is the single byte 00
+    */
+    static byte[] lengthEncode(long x) {
+        int n = (64 - Long.numberOfLeadingZeros(x) + 7) / 8;
+        byte[] out = new byte[n + 1];
+        for (int i = 0; i < n; i++) {
+            out[i] = (byte) (x >>> (8 * (n - 1 - i)));
+        }
+        out[n] = (byte) n;
+        return out;
+    }
+
+    private static KeccakSponge newSponge() {
+        return new KeccakSponge(RATE, ROUNDS);
+    }
+
+    private static void checkDomain(int domain) {
+        if (domain < 0x01 || domain > 0x7f) throw new IllegalArgumentException("Domain byte must be between 0x01 and 0x7F.");
+    }
+
+    private static byte[] squeeze(KeccakSponge sponge, int domain, int bitLength) {
+        sponge.pad(domain);
+        byte[] out = new byte[bitLength / 8];
+        sponge.squeeze(out, 0, out.length);
+        return out;
+    }
+}
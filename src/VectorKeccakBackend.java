@@ -0,0 +1,157 @@
+/*
+    *Keccak-f[1600] on several states at once with the jdk.incubator.vector API.
+    *Lane i of up to species length states is one LongVector, so each theta, rho, pi, chi and iota
+    *operation on a lane runs for all of those states at once (4 states per AVX2 register,
+    *8 per AVX-512 register).
+    *Only linked when the JVM runs with --add-modules jdk.incubator.vector, see Keccak.backend().
+*/
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.AND_NOT;
+import static jdk.incubator.vector.VectorOperators.ROL;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+
+final class VectorKeccakBackend implements KeccakBackend {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int W = SPECIES.length();
+    // per-thread {b, st} scratch of 25 vectors each, permuteStates runs on the leaf hashing hot path
+    private static final ThreadLocal<long[][]> SCRATCH = ThreadLocal.withInitial(() -> new long[][] {new long[25 * W], new long[25 * W]});
+
+    private VectorKeccakBackend() {
+    }
+
+    //a backend over the widest vectors this CPU has, or null if they hold fewer than two longs
+    static KeccakBackend create() {
+        return W < 2 ? null : new VectorKeccakBackend();
+    }
+
+    @Override
+    public String name() {
+        return "vector";
+    }
+
+    @Override
+    public int preferredStates() {
+        return W;
+    }
+
+    //a single state has nothing to spread over the vector lanes
+    @Override
+    public void permute(long[] a, int rounds) {
+        Keccak.permute(a, rounds);
+    }
+
+    @Override
+    public void permuteStates(long[] a, int n, int rounds) {
+        if (a.length < 25*n) throw new IllegalArgumentException("State array is too short.");
+        if (rounds < 1 || rounds > Keccak.ROUNDS) throw new IllegalArgumentException("Rounds must be between 1 and 24.");
+        long[][] scratch = SCRATCH.get();
+        long[] b = scratch[0];
+        if (n == W) {
+            // exactly one vector of states, a already has the dense layout the steps work on
+            rounds(a, b, rounds);
+            return;
+        }
+        long[] st = scratch[1];
+        // plain copies in and out of the dense layout, masked vector loads box their mask and
+        // vectors whenever the helper holding them is not inlined
+        for (int lo = 0; lo < n; lo += W) {
+            int k = Math.min(W, n - lo);
+            for (int i = 0; i < 25; i++) {
+                System.arraycopy(a, i*n + lo, st, i*W, k);
+            }
+            rounds(st, b, rounds);
+            for (int i = 0; i < 25; i++) {
+                System.arraycopy(st, i*W, a, i*n + lo, k);
+            }
+        }
+    }
+
+    /*
+        runs the rounds on W dense states (lane i at st[i*W]), b is scratch of the same size
+        the steps are kept in small methods so the JIT inlines every vector operation into its intrinsic,
+        one method holding the whole round runs out of inlining budget and falls back to boxed vectors
+    */
+    private static void rounds(long[] st, long[] b, int rounds) {
+        for (int r = Keccak.ROUNDS - rounds; r < Keccak.ROUNDS; r++) {
+            theta(st, b);
+            rhoPi(st, b);
+            chi(b, st);
+            LongVector.fromArray(SPECIES, st, 0).lanewise(XOR, Keccak.roundConstant(r)).intoArray(st, 0);
+        }
+    }
+
+    /*
+        column parities C[x] go to b[x*W], then every lane of column x is XORed with
+        D[x] = C[x-1] ^ rol(C[x+1], 1). No vector is passed between methods, a call the JIT does
+        not inline would box it. b is free here, rhoPi overwrites all of it next
+    */
+    private static void theta(long[] st, long[] b) {
+        for (int x = 0; x < 5; x++) column(st, x, b);
+        for (int x = 0; x < 5; x++) xorColumn(st, x, b);
+    }
+
+    private static void xorColumn(long[] st, int x, long[] b) {
+        LongVector d = LongVector.fromArray(SPECIES, b, (x + 4) % 5 * W)
+                .lanewise(XOR, LongVector.fromArray(SPECIES, b, (x + 1) % 5 * W).lanewise(ROL, 1));
+        for (int y = 0; y < 25; y += 5) {
+            int o = (x + y) * W;
+            LongVector.fromArray(SPECIES, st, o).lanewise(XOR, d).intoArray(st, o);
+        }
+    }
+
+    private static void column(long[] st, int x, long[] b) {
+        LongVector.fromArray(SPECIES, st, x*W)
+                .lanewise(XOR, LongVector.fromArray(SPECIES, st, (x + 5)*W))
+                .lanewise(XOR, LongVector.fromArray(SPECIES, st, (x + 10)*W))
+                .lanewise(XOR, LongVector.fromArray(SPECIES, st, (x + 15)*W))
+                .lanewise(XOR, LongVector.fromArray(SPECIES, st, (x + 20)*W))
+                .intoArray(b, x*W);
+    }
+
+    private static void rhoPi(long[] st, long[] b) {
+        LongVector.fromArray(SPECIES, st, 0).intoArray(b, 0);
+        LongVector.fromArray(SPECIES, st, W).lanewise(ROL, 1).intoArray(b, 10*W);
+        LongVector.fromArray(SPECIES, st, 2*W).lanewise(ROL, 62).intoArray(b, 20*W);
+        LongVector.fromArray(SPECIES, st, 3*W).lanewise(ROL, 28).intoArray(b, 5*W);
+        LongVector.fromArray(SPECIES, st, 4*W).lanewise(ROL, 27).intoArray(b, 15*W);
+        LongVector.fromArray(SPECIES, st, 5*W).lanewise(ROL, 36).intoArray(b, 16*W);
+        LongVector.fromArray(SPECIES, st, 6*W).lanewise(ROL, 44).intoArray(b, W);
+        LongVector.fromArray(SPECIES, st, 7*W).lanewise(ROL, 6).intoArray(b, 11*W);
+        LongVector.fromArray(SPECIES, st, 8*W).lanewise(ROL, 55).intoArray(b, 21*W);
+        LongVector.fromArray(SPECIES, st, 9*W).lanewise(ROL, 20).intoArray(b, 6*W);
+        LongVector.fromArray(SPECIES, st, 10*W).lanewise(ROL, 3).intoArray(b, 7*W);
+        LongVector.fromArray(SPECIES, st, 11*W).lanewise(ROL, 10).intoArray(b, 17*W);
+        LongVector.fromArray(SPECIES, st, 12*W).lanewise(ROL, 43).intoArray(b, 2*W);
+        LongVector.fromArray(SPECIES, st, 13*W).lanewise(ROL, 25).intoArray(b, 12*W);
+        LongVector.fromArray(SPECIES, st, 14*W).lanewise(ROL, 39).intoArray(b, 22*W);
+        LongVector.fromArray(SPECIES, st, 15*W).lanewise(ROL, 41).intoArray(b, 23*W);
+        LongVector.fromArray(SPECIES, st, 16*W).lanewise(ROL, 45).intoArray(b, 8*W);
+        LongVector.fromArray(SPECIES, st, 17*W).lanewise(ROL, 15).intoArray(b, 18*W);
+        LongVector.fromArray(SPECIES, st, 18*W).lanewise(ROL, 21).intoArray(b, 3*W);
+        LongVector.fromArray(SPECIES, st, 19*W).lanewise(ROL, 8).intoArray(b, 13*W);
+        LongVector.fromArray(SPECIES, st, 20*W).lanewise(ROL, 18).intoArray(b, 14*W);
+        LongVector.fromArray(SPECIES, st, 21*W).lanewise(ROL, 2).intoArray(b, 24*W);
+        LongVector.fromArray(SPECIES, st, 22*W).lanewise(ROL, 61).intoArray(b, 9*W);
+        LongVector.fromArray(SPECIES, st, 23*W).lanewise(ROL, 56).intoArray(b, 19*W);
+        LongVector.fromArray(SPECIES, st, 24*W).lanewise(ROL, 14).intoArray(b, 4*W);
+    }
+
+    private static void chi(long[] b, long[] st) {
+        for (int y = 0; y < 25; y += 5) {
+            LongVector b0 = LongVector.fromArray(SPECIES, b, y*W);
+            LongVector b1 = LongVector.fromArray(SPECIES, b, (y + 1)*W);
+            LongVector b2 = LongVector.fromArray(SPECIES, b, (y + 2)*W);
+            LongVector b3 = LongVector.fromArray(SPECIES, b, (y + 3)*W);
+            LongVector b4 = LongVector.fromArray(SPECIES, b, (y + 4)*W);
+            b0.lanewise(XOR, b2.lanewise(AND_NOT, b1)).intoArray(st, y*W);
+            b1.lanewise(XOR, b3.lanewise(AND_NOT, b2)).intoArray(st, (y + 1)*W);
+            b2.lanewise(XOR, b4.lanewise(AND_NOT, b3)).intoArray(st, (y + 2)*W);
+            b3.lanewise(XOR, b0.lanewise(AND_NOT, b4)).intoArray(st, (y + 3)*W);
+            b4.lanewise(XOR, b1.lanewise(AND_NOT, b0)).intoArray(st, (y + 4)*W);
+        }
+    }
+}